@@ -19,8 +19,14 @@ import com.android.settings.dashboard.DashboardFragment;
 import com.android.settings.search.BaseSearchIndexProvider;
 import com.android.settingslib.search.SearchIndexable;
 
+import org.evolution.settings.preferences.SettingsCache;
+import org.evolution.settings.preferences.SettingsStats;
+import org.evolution.settings.preferences.SystemPropertyBatcher;
 import org.evolution.settings.utils.DeviceUtils;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 @SearchIndexable
 public class EvolutionSettings extends DashboardFragment {
 
@@ -61,6 +67,15 @@ public class EvolutionSettings extends DashboardFragment {
         return TAG;
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Settings caches:");
+        SettingsCache.dump(writer);
+        SettingsStats.dump(writer);
+        SystemPropertyBatcher.dump(writer);
+    }
+
     public static final BaseSearchIndexProvider SEARCH_INDEX_DATA_PROVIDER =
             new BaseSearchIndexProvider(R.xml.evolution_settings);
 }
@@ -16,12 +16,10 @@
 package org.evolution.settings.fragments.lockscreen;
 
 import android.content.Context;
-import android.content.ContentResolver;
 import android.content.DialogInterface;
 import android.content.res.Resources;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.os.UserHandle;
 import android.provider.Settings;
 
 import androidx.preference.ListPreference;
@@ -35,6 +33,9 @@ import com.android.internal.logging.nano.MetricsProto;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 
+import org.evolution.settings.preferences.SecureSettingsStore;
+import org.evolution.settings.preferences.SettingsCache;
+import org.evolution.settings.preferences.SettingsPrefetcher;
 import org.evolution.settings.preferences.colorpicker.ColorPickerPreference;
 
 public class PulseSettings extends SettingsPreferenceFragment implements
@@ -74,29 +75,42 @@ public class PulseSettings extends SettingsPreferenceFragment implements
     private PreferenceCategory mFadingBarsCat;
     private PreferenceCategory mSolidBarsCat;
 
+    private SecureSettingsStore mSecureStore;
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        new SettingsPrefetcher(context)
+                .addScreen(R.xml.pulse_settings)
+                .addKeys(SettingsCache.SECURE, Settings.Secure.NAVBAR_PULSE_ENABLED,
+                        Settings.Secure.LOCKSCREEN_PULSE_ENABLED,
+                        Settings.Secure.AMBIENT_PULSE_ENABLED)
+                .start();
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
         addPreferencesFromResource(R.xml.pulse_settings);
 
-        ContentResolver resolver = getContext().getContentResolver();
+        mSecureStore = new SecureSettingsStore(getContext().getContentResolver());
 
         mNavbarPulse = (SwitchPreferenceCompat) findPreference(NAVBAR_PULSE_ENABLED_KEY);
-        boolean navbarPulse = Settings.Secure.getIntForUser(resolver,
-                Settings.Secure.NAVBAR_PULSE_ENABLED, 0, UserHandle.USER_CURRENT) != 0;
+        boolean navbarPulse = mSecureStore.getInt(
+                Settings.Secure.NAVBAR_PULSE_ENABLED, 0) != 0;
         mNavbarPulse.setChecked(navbarPulse);
         mNavbarPulse.setOnPreferenceChangeListener(this);
 
         mLockscreenPulse = (SwitchPreferenceCompat) findPreference(LOCKSCREEN_PULSE_ENABLED_KEY);
-        boolean lockscreenPulse = Settings.Secure.getIntForUser(resolver,
-                Settings.Secure.LOCKSCREEN_PULSE_ENABLED, 1, UserHandle.USER_CURRENT) != 0;
+        boolean lockscreenPulse = mSecureStore.getInt(
+                Settings.Secure.LOCKSCREEN_PULSE_ENABLED, 1) != 0;
         mLockscreenPulse.setChecked(lockscreenPulse);
         mLockscreenPulse.setOnPreferenceChangeListener(this);
 
         mAmbientPulse = (SwitchPreferenceCompat) findPreference(AMBIENT_PULSE_ENABLED_KEY);
-        boolean ambientPulse = Settings.Secure.getIntForUser(resolver,
-                Settings.Secure.AMBIENT_PULSE_ENABLED, 0, UserHandle.USER_CURRENT) != 0;
+        boolean ambientPulse = mSecureStore.getInt(
+                Settings.Secure.AMBIENT_PULSE_ENABLED, 0) != 0;
         mAmbientPulse.setChecked(ambientPulse);
         mAmbientPulse.setOnPreferenceChangeListener(this); 
 
@@ -123,23 +137,19 @@ public class PulseSettings extends SettingsPreferenceFragment implements
 
     @Override
     public boolean onPreferenceChange(Preference preference, Object newValue) {
-        ContentResolver resolver = getContext().getContentResolver();
         if (preference == mNavbarPulse) {
             boolean val = (Boolean) newValue;
-            Settings.Secure.putIntForUser(resolver,
-                Settings.Secure.NAVBAR_PULSE_ENABLED, val ? 1 : 0, UserHandle.USER_CURRENT);
+            mSecureStore.putInt(Settings.Secure.NAVBAR_PULSE_ENABLED, val ? 1 : 0);
             updateAllPrefs();
             return true;
         } else if (preference == mLockscreenPulse) {
             boolean val = (Boolean) newValue;
-            Settings.Secure.putIntForUser(resolver,
-                Settings.Secure.LOCKSCREEN_PULSE_ENABLED, val ? 1 : 0, UserHandle.USER_CURRENT);
+            mSecureStore.putInt(Settings.Secure.LOCKSCREEN_PULSE_ENABLED, val ? 1 : 0);
             updateAllPrefs();
             return true;
         } else if (preference == mAmbientPulse) {
             boolean val = (Boolean) newValue;
-            Settings.Secure.putIntForUser(resolver,
-                Settings.Secure.AMBIENT_PULSE_ENABLED, val ? 1 : 0, UserHandle.USER_CURRENT);
+            mSecureStore.putInt(Settings.Secure.AMBIENT_PULSE_ENABLED, val ? 1 : 0);
             updateAllPrefs();
             return true;
         } else if (preference == mColorModePref) {
@@ -153,22 +163,20 @@ public class PulseSettings extends SettingsPreferenceFragment implements
     }
 
     private void updateAllPrefs() {
-        ContentResolver resolver = getContext().getContentResolver();
-
-        boolean navbarPulse = Settings.Secure.getIntForUser(resolver,
-                Settings.Secure.NAVBAR_PULSE_ENABLED, 0, UserHandle.USER_CURRENT) != 0;
-        boolean lockscreenPulse = Settings.Secure.getIntForUser(resolver,
-                Settings.Secure.LOCKSCREEN_PULSE_ENABLED, 1, UserHandle.USER_CURRENT) != 0;
+        boolean navbarPulse = mSecureStore.getInt(
+                Settings.Secure.NAVBAR_PULSE_ENABLED, 0) != 0;
+        boolean lockscreenPulse = mSecureStore.getInt(
+                Settings.Secure.LOCKSCREEN_PULSE_ENABLED, 1) != 0;
 
-        boolean ambientPulse = Settings.Secure.getIntForUser(resolver,
-                Settings.Secure.AMBIENT_PULSE_ENABLED, 0, UserHandle.USER_CURRENT) != 0;
+        boolean ambientPulse = mSecureStore.getInt(
+                Settings.Secure.AMBIENT_PULSE_ENABLED, 0) != 0;
 
         mPulseSmoothing.setEnabled(navbarPulse || lockscreenPulse || ambientPulse);
 
         mColorModePref.setEnabled(navbarPulse || lockscreenPulse || ambientPulse);
         if (navbarPulse || lockscreenPulse) {
-            int colorMode = Settings.Secure.getIntForUser(resolver,
-                Settings.Secure.PULSE_COLOR_MODE, COLOR_TYPE_LAVALAMP, UserHandle.USER_CURRENT);
+            int colorMode = mSecureStore.getInt(
+                Settings.Secure.PULSE_COLOR_MODE, COLOR_TYPE_LAVALAMP);
             updateColorPrefs(colorMode);
         } else {
             mColorPickerPref.setEnabled(false);
@@ -177,8 +185,8 @@ public class PulseSettings extends SettingsPreferenceFragment implements
 
         mRenderMode.setEnabled(navbarPulse || lockscreenPulse || ambientPulse);
         if (navbarPulse || lockscreenPulse || ambientPulse) {
-            int renderMode = Settings.Secure.getIntForUser(resolver,
-                Settings.Secure.PULSE_RENDER_STYLE, RENDER_STYLE_SOLID_LINES, UserHandle.USER_CURRENT);
+            int renderMode = mSecureStore.getInt(
+                Settings.Secure.PULSE_RENDER_STYLE, RENDER_STYLE_SOLID_LINES);
             updateRenderCategories(renderMode);
         } else {
             mFadingBarsCat.setEnabled(false);
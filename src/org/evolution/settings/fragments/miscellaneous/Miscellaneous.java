@@ -6,10 +6,16 @@
 package org.evolution.settings.fragments.miscellaneous;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.Intent;
 import android.content.res.Resources;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+import android.widget.Toast;
 
 import androidx.preference.Preference;
 import androidx.preference.Preference.OnPreferenceChangeListener;
@@ -22,9 +28,16 @@ import com.android.settings.search.BaseSearchIndexProvider;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settingslib.search.SearchIndexable;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.evolution.settings.fragments.miscellaneous.SmartPixels;
+import org.evolution.settings.preferences.SettingsRegistry;
+import org.evolution.settings.utils.SettingsBackup;
+import org.evolution.settings.utils.SettingsDefaults;
 
 @SearchIndexable
 public class Miscellaneous extends SettingsPreferenceFragment implements
@@ -34,9 +47,15 @@ public class Miscellaneous extends SettingsPreferenceFragment implements
 
     private static final String KEY_DEV_CATEGORY = "miscellaneous_developer_options_category";
     private static final String KEY_SMART_PIXELS = "smart_pixels";
+    private static final String KEY_BACKUP_RESTORE = "settings_backup_restore";
+
+    private static final int REQUEST_CODE_EXPORT = 1001;
+    private static final int REQUEST_CODE_IMPORT = 1002;
 
     private PreferenceCategory mDevOptionsCategory;
     private Preference mSmartPixels;
+    private Preference mBackupRestore;
+    private Handler mHandler;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -55,6 +74,171 @@ public class Miscellaneous extends SettingsPreferenceFragment implements
         if (!mSmartPixelsSupported) {
             mDevOptionsCategory.removePreference(mSmartPixels);
         }
+
+        mBackupRestore = (Preference) findPreference(KEY_BACKUP_RESTORE);
+        mHandler = new Handler();
+    }
+
+    @Override
+    public boolean onPreferenceTreeClick(Preference preference) {
+        if (preference == mBackupRestore) {
+            showBackupRestoreDialog();
+            return true;
+        }
+        return super.onPreferenceTreeClick(preference);
+    }
+
+    private void showBackupRestoreDialog() {
+        CharSequence[] items = {
+            getString(R.string.settings_backup_export),
+            getString(R.string.settings_backup_import),
+            getString(R.string.settings_reset_defaults),
+        };
+        new AlertDialog.Builder(getContext())
+            .setTitle(R.string.settings_backup_restore_title)
+            .setItems(items, (dialog, which) -> {
+                if (which == 2) {
+                    showResetDialog();
+                    return;
+                }
+                Intent intent;
+                if (which == 0) {
+                    intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                    intent.putExtra(Intent.EXTRA_TITLE, SettingsBackup.FILE_NAME);
+                } else {
+                    intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                }
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType(SettingsBackup.MIME_TYPE);
+                startActivityForResult(intent, which == 0 ? REQUEST_CODE_EXPORT
+                        : REQUEST_CODE_IMPORT);
+            })
+            .setNegativeButton(android.R.string.cancel, null)
+            .show();
+    }
+
+    private void showResetDialog() {
+        final Context appContext = getContext().getApplicationContext();
+        // Reading the titles parses every screen XML, so keep it off the main thread.
+        new Thread(() -> {
+            final List<Integer> screens = new ArrayList<>();
+            final List<CharSequence> titles = new ArrayList<>();
+            titles.add(appContext.getString(R.string.settings_reset_all_sections));
+            for (int screen : SettingsRegistry.SCREENS) {
+                CharSequence title = SettingsRegistry.getTitle(appContext, screen);
+                if (title != null) {
+                    screens.add(screen);
+                    titles.add(title);
+                }
+            }
+            mHandler.post(() -> showResetDialog(screens, titles));
+        }, TAG).start();
+    }
+
+    private void showResetDialog(List<Integer> screens, List<CharSequence> titles) {
+        final Context context = getContext();
+        if (context == null || !isAdded()) {
+            return;
+        }
+        new AlertDialog.Builder(context)
+            .setTitle(R.string.settings_reset_defaults)
+            .setItems(titles.toArray(new CharSequence[0]), (dialog, which) -> {
+                int[] selected = which == 0 ? SettingsRegistry.SCREENS
+                        : new int[] { screens.get(which - 1) };
+                new AlertDialog.Builder(context)
+                    .setTitle(R.string.settings_reset_defaults)
+                    .setMessage(getString(R.string.settings_reset_message, titles.get(which)))
+                    .setPositiveButton(android.R.string.ok,
+                            (confirm, button) -> resetSettings(selected))
+                    .setNegativeButton(android.R.string.cancel, null)
+                    .show();
+            })
+            .setNegativeButton(android.R.string.cancel, null)
+            .show();
+    }
+
+    private void resetSettings(int[] screens) {
+        final Context context = getContext().getApplicationContext();
+        new Thread(() -> {
+            int count = SettingsDefaults.reset(context, screens);
+            mHandler.post(() -> Toast.makeText(context,
+                    context.getString(R.string.settings_reset_done, count),
+                    Toast.LENGTH_SHORT).show());
+        }, TAG).start();
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == REQUEST_CODE_EXPORT) {
+            exportSettings(data.getData());
+        } else if (requestCode == REQUEST_CODE_IMPORT) {
+            importSettings(data.getData());
+        }
+    }
+
+    private void exportSettings(Uri uri) {
+        final Context context = getContext().getApplicationContext();
+        new Thread(() -> {
+            boolean success = false;
+            try (OutputStream out = context.getContentResolver().openOutputStream(uri, "wt")) {
+                if (out != null) {
+                    SettingsBackup.export(context, out);
+                    success = true;
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error exporting settings to " + uri, e);
+            }
+            final boolean exported = success;
+            mHandler.post(() -> Toast.makeText(context, exported
+                    ? R.string.settings_backup_exported : R.string.settings_backup_failed,
+                    Toast.LENGTH_SHORT).show());
+        }, TAG).start();
+    }
+
+    private void importSettings(Uri uri) {
+        final Context context = getContext().getApplicationContext();
+        new Thread(() -> {
+            SettingsBackup.Plan plan = null;
+            try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                if (in != null) {
+                    plan = SettingsBackup.read(context, in);
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error reading settings from " + uri, e);
+            }
+            final SettingsBackup.Plan result = plan;
+            mHandler.post(() -> {
+                if (result == null) {
+                    Toast.makeText(context, R.string.settings_backup_failed,
+                            Toast.LENGTH_SHORT).show();
+                } else if (result.getChangeCount() == 0) {
+                    Toast.makeText(context, R.string.settings_backup_no_changes,
+                            Toast.LENGTH_SHORT).show();
+                } else if (getContext() != null) {
+                    showApplyDialog(result);
+                }
+            });
+        }, TAG).start();
+    }
+
+    private void showApplyDialog(SettingsBackup.Plan plan) {
+        final Context context = getContext().getApplicationContext();
+        new AlertDialog.Builder(getContext())
+            .setTitle(R.string.settings_backup_apply_title)
+            .setMessage(getString(R.string.settings_backup_apply_message,
+                    plan.getChangeCount()))
+            .setPositiveButton(android.R.string.ok, (dialog, which) -> new Thread(() -> {
+                boolean success = SettingsBackup.apply(context, plan);
+                mHandler.post(() -> Toast.makeText(context, success
+                        ? R.string.settings_backup_restored : R.string.settings_backup_partial,
+                        Toast.LENGTH_SHORT).show());
+            }, TAG).start())
+            .setNegativeButton(android.R.string.cancel, null)
+            .show();
     }
 
     @Override
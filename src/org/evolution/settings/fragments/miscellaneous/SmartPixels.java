@@ -17,14 +17,12 @@
 package org.evolution.settings.fragments.miscellaneous;
 
 import android.content.Context;
-import android.content.ContentResolver;
 import android.content.res.Resources;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.UserHandle;
-import android.provider.Settings;
 
+import androidx.annotation.WorkerThread;
 import androidx.preference.ListPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceScreen;
@@ -35,6 +33,8 @@ import com.android.internal.logging.nano.MetricsProto;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 
+import org.evolution.settings.utils.SettingsDefaults;
+
 public class SmartPixels extends SettingsPreferenceFragment {
 
     private static final String TAG = "SmartPixels";
@@ -50,16 +50,9 @@ public class SmartPixels extends SettingsPreferenceFragment {
         findPreference(SMART_PIXELS_FOOTER).setTitle(R.string.smart_pixels_warning_text);
     }
 
+    @WorkerThread
     public static void reset(Context mContext) {
-        ContentResolver resolver = mContext.getContentResolver();
-        Settings.System.putIntForUser(resolver,
-                Settings.System.SMART_PIXELS_ENABLE, 0, UserHandle.USER_CURRENT);
-        Settings.System.putIntForUser(resolver,
-                Settings.System.SMART_PIXELS_ON_POWER_SAVE, 0, UserHandle.USER_CURRENT);
-        Settings.System.putIntForUser(resolver,
-                Settings.System.SMART_PIXELS_PATTERN, 5, UserHandle.USER_CURRENT);
-        Settings.System.putIntForUser(resolver,
-                Settings.System.SMART_PIXELS_SHIFT_TIMEOUT, 4, UserHandle.USER_CURRENT);
+        SettingsDefaults.reset(mContext, R.xml.smart_pixels);
     }
 
     @Override
@@ -23,12 +23,12 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.UserHandle;
 import android.provider.MediaStore;
 import android.provider.SearchIndexableResource;
 import android.provider.Settings;
 import android.widget.Toast;
 
+import androidx.annotation.WorkerThread;
 import androidx.preference.ListPreference;
 import androidx.preference.Preference;
 import androidx.preference.Preference.OnPreferenceChangeListener;
@@ -45,6 +45,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.evolution.settings.utils.SettingsDefaults;
+
 @SearchIndexable
 public class QsHeaderImageSettings extends SettingsPreferenceFragment implements
         OnPreferenceChangeListener {
@@ -199,14 +201,9 @@ public class QsHeaderImageSettings extends SettingsPreferenceFragment implements
         }
     }
 
+    @WorkerThread
     public static void reset(Context mContext) {
-        ContentResolver resolver = mContext.getContentResolver();
-        Settings.System.putIntForUser(resolver,
-                Settings.System.STATUS_BAR_CUSTOM_HEADER, 0, UserHandle.USER_CURRENT);
-        Settings.System.putIntForUser(resolver,
-                Settings.System.STATUS_BAR_CUSTOM_HEADER_SHADOW, 0, UserHandle.USER_CURRENT);
-        Settings.System.putIntForUser(resolver,
-                Settings.System.STATUS_BAR_CUSTOM_HEADER_HEIGHT, 142, UserHandle.USER_CURRENT);
+        SettingsDefaults.reset(mContext, R.xml.qs_header_image_settings);
     }
 
     @Override
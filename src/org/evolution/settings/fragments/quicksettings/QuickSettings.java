@@ -10,7 +10,6 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.UserHandle;
 import android.provider.Settings;
 
 import androidx.preference.ListPreference;
@@ -33,9 +32,13 @@ import java.util.List;
 import lineageos.preference.LineageSecureSettingSwitchPreference;
 import lineageos.providers.LineageSettings;
 
+import org.evolution.settings.preferences.LineageSecureSettingsStore;
+import org.evolution.settings.preferences.SettingsCache;
+import org.evolution.settings.preferences.SettingsPrefetcher;
 import org.evolution.settings.preferences.SystemSettingListPreference;
 import org.evolution.settings.preferences.SystemSettingSeekBarPreference;
 import org.evolution.settings.preferences.SystemSettingSwitchPreference;
+import org.evolution.settings.preferences.SystemSettingsStore;
 import org.evolution.settings.utils.DeviceUtils;
 
 @SearchIndexable
@@ -80,6 +83,18 @@ public class QuickSettings extends SettingsPreferenceFragment implements
 
     private Handler mHandler = new Handler();
 
+    private SystemSettingsStore mSystemStore;
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        new SettingsPrefetcher(context)
+                .addScreen(R.xml.evolution_settings_quick_settings)
+                .addKeys(SettingsCache.SYSTEM, Settings.System.QS_TILE_UI_STYLE,
+                        Settings.System.QS_PANEL_STYLE)
+                .start();
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -91,12 +106,13 @@ public class QuickSettings extends SettingsPreferenceFragment implements
         final ContentResolver resolver = mContext.getContentResolver();
         final PreferenceScreen prefScreen = getPreferenceScreen();
         final Resources resources = mContext.getResources();
+        mSystemStore = new SystemSettingsStore(resolver);
 
         mBatteryStyle = (SystemSettingListPreference) findPreference(KEY_BATTERY_STYLE);
         mBatteryPercent = (SystemSettingListPreference) findPreference(KEY_BATTERY_PERCENT);
 
-        int batterystyle = Settings.System.getIntForUser(resolver,
-                Settings.System.QS_BATTERY_STYLE, BATTERY_STYLE_PORTRAIT, UserHandle.USER_CURRENT);
+        int batterystyle = mSystemStore.getInt(
+                Settings.System.QS_BATTERY_STYLE, BATTERY_STYLE_PORTRAIT);
 
         mBatteryStyle.setOnPreferenceChangeListener(this);
 
@@ -105,8 +121,8 @@ public class QuickSettings extends SettingsPreferenceFragment implements
 
         mShowBrightnessSlider = findPreference(KEY_SHOW_BRIGHTNESS_SLIDER);
         mShowBrightnessSlider.setOnPreferenceChangeListener(this);
-        boolean showSlider = LineageSettings.Secure.getIntForUser(resolver,
-                LineageSettings.Secure.QS_SHOW_BRIGHTNESS_SLIDER, 1, UserHandle.USER_CURRENT) > 0;
+        boolean showSlider = new LineageSecureSettingsStore(resolver).getInt(
+                LineageSettings.Secure.QS_SHOW_BRIGHTNESS_SLIDER, 1) > 0;
 
         mBrightnessSliderPosition = findPreference(KEY_BRIGHTNESS_SLIDER_POSITION);
         mBrightnessSliderPosition.setEnabled(showSlider);
@@ -125,8 +141,8 @@ public class QuickSettings extends SettingsPreferenceFragment implements
         mTileAnimationInterpolator = (SystemSettingListPreference) findPreference(KEY_TILE_ANIM_INTERPOLATOR);
         mTileAnimationStyle.setOnPreferenceChangeListener(this);
 
-        int tileAnimationStyle = Settings.System.getIntForUser(getContentResolver(),
-                Settings.System.QS_TILE_ANIMATION_STYLE, 0, UserHandle.USER_CURRENT);
+        int tileAnimationStyle = mSystemStore.getInt(
+                Settings.System.QS_TILE_ANIMATION_STYLE, 0);
         updateTileAnimStyle(tileAnimationStyle);
 
         mMiscellaneousCategory = (PreferenceCategory) findPreference(KEY_MISCELLANEOUS_CATEGORY);
@@ -164,15 +180,13 @@ public class QuickSettings extends SettingsPreferenceFragment implements
             return true;
         } else if (preference == mQsUI) {
             int value = Integer.parseInt((String) newValue);
-            Settings.System.putIntForUser(resolver,
-                    Settings.System.QS_TILE_UI_STYLE, value, UserHandle.USER_CURRENT);
+            mSystemStore.putInt(Settings.System.QS_TILE_UI_STYLE, value);
             updateQsStyle(getContext());
             checkQSOverlays(getContext());
             return true;
         } else if (preference == mQsPanelStyle) {
             int value = Integer.parseInt((String) newValue);
-            Settings.System.putIntForUser(resolver,
-                    Settings.System.QS_PANEL_STYLE, value, UserHandle.USER_CURRENT);
+            mSystemStore.putInt(Settings.System.QS_PANEL_STYLE, value);
             updateQsPanelStyle(getContext());
             checkQSOverlays(getContext());
             return true;
@@ -182,8 +196,7 @@ public class QuickSettings extends SettingsPreferenceFragment implements
             return true;
         } else if (preference == mSplitShadePref) {
             int value = (boolean) newValue ? 1 : 0;
-            Settings.System.putIntForUser(resolver,
-                   "qs_split_shade_enabled", value, UserHandle.USER_CURRENT);
+            mSystemStore.putInt("qs_split_shade_enabled", value);
             updateSplitShadeEnabled(getActivity());
             return true;
         }
@@ -196,10 +209,8 @@ public class QuickSettings extends SettingsPreferenceFragment implements
     }
 
     private void updateSplitShadeEnabled(Context context) {
-        ContentResolver resolver = context.getContentResolver();
-        boolean splitShadeEnabled = Settings.System.getIntForUser(
-                resolver,
-                "qs_split_shade_enabled" , 0, UserHandle.USER_CURRENT) != 0;
+        boolean splitShadeEnabled = new SystemSettingsStore(context.getContentResolver())
+                .getInt("qs_split_shade_enabled", 0) != 0;
         String splitShadeStyleCategory = "android.theme.customization.better_qs";
         String overlayThemeTarget  = "com.android.systemui";
         String overlayThemePackage  = "com.android.system.qs.ui.better_qs";
@@ -215,10 +226,9 @@ public class QuickSettings extends SettingsPreferenceFragment implements
     }
 
     private static void updateQsStyle(Context context) {
-        ContentResolver resolver = context.getContentResolver();
+        SystemSettingsStore store = new SystemSettingsStore(context.getContentResolver());
 
-        boolean isA11Style = Settings.System.getIntForUser(resolver,
-                Settings.System.QS_TILE_UI_STYLE , 0, UserHandle.USER_CURRENT) != 0;
+        boolean isA11Style = store.getInt(Settings.System.QS_TILE_UI_STYLE, 0) != 0;
 
         String qsUIStyleCategory = "android.theme.customization.qs_ui";
         String overlayThemeTarget  = "com.android.systemui";
@@ -237,10 +247,9 @@ public class QuickSettings extends SettingsPreferenceFragment implements
     }
 
     private static void updateQsPanelStyle(Context context) {
-        ContentResolver resolver = context.getContentResolver();
+        SystemSettingsStore store = new SystemSettingsStore(context.getContentResolver());
 
-        int qsPanelStyle = Settings.System.getIntForUser(resolver,
-                Settings.System.QS_PANEL_STYLE, 0, UserHandle.USER_CURRENT);
+        int qsPanelStyle = store.getInt(Settings.System.QS_PANEL_STYLE, 0);
 
         String qsPanelStyleCategory = "android.theme.customization.qs_panel";
         String overlayThemeTarget  = "com.android.systemui";
@@ -289,11 +298,8 @@ public class QuickSettings extends SettingsPreferenceFragment implements
     }
 
     private void checkQSOverlays(Context context) {
-        ContentResolver resolver = context.getContentResolver();
-        int isA11Style = Settings.System.getIntForUser(resolver,
-                Settings.System.QS_TILE_UI_STYLE , 0, UserHandle.USER_CURRENT);
-        int qsPanelStyle = Settings.System.getIntForUser(resolver,
-                Settings.System.QS_PANEL_STYLE , 0, UserHandle.USER_CURRENT);
+        int isA11Style = mSystemStore.getInt(Settings.System.QS_TILE_UI_STYLE, 0);
+        int qsPanelStyle = mSystemStore.getInt(Settings.System.QS_PANEL_STYLE, 0);
 
         // Update summaries
         int index = mQsUI.findIndexOfValue(Integer.toString(isA11Style));
@@ -9,7 +9,6 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.Resources;
 import android.os.Bundle;
-import android.os.UserHandle;
 import android.provider.Settings;
 import android.view.View;
 
@@ -28,8 +27,10 @@ import java.util.List;
 
 import lineageos.preference.LineageSystemSettingListPreference;
 
+import org.evolution.settings.preferences.SettingsPrefetcher;
 import org.evolution.settings.preferences.SystemSettingListPreference;
 import org.evolution.settings.preferences.SystemSettingSwitchPreference;
+import org.evolution.settings.preferences.SystemSettingsStore;
 import org.evolution.settings.utils.DeviceUtils;
 import org.evolution.settings.utils.SystemUtils;
 
@@ -69,6 +70,16 @@ public class StatusBar extends SettingsPreferenceFragment implements
     private SystemSettingSwitchPreference mBluetoothBatteryStatus;
     private SystemSettingSwitchPreference mColoredIcons;
 
+    private SystemSettingsStore mSystemStore;
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        new SettingsPrefetcher(context)
+                .addScreen(R.xml.evolution_settings_status_bar)
+                .start();
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -76,6 +87,7 @@ public class StatusBar extends SettingsPreferenceFragment implements
 
         final Context context = getContext();
         final ContentResolver resolver = context.getContentResolver();
+        mSystemStore = new SystemSettingsStore(resolver);
         final PreferenceScreen prefScreen = getPreferenceScreen();
         final Resources resources = context.getResources();
 
@@ -100,10 +112,10 @@ public class StatusBar extends SettingsPreferenceFragment implements
             mQuickPulldown.setEntryValues(R.array.status_bar_quick_pull_down_values_rtl);
         }
 
-        int batterystyle = Settings.System.getIntForUser(resolver,
-                Settings.System.STATUS_BAR_BATTERY_STYLE, BATTERY_STYLE_PORTRAIT, UserHandle.USER_CURRENT);
-        int batterypercent = Settings.System.getIntForUser(resolver,
-                Settings.System.STATUS_BAR_SHOW_BATTERY_PERCENT, 0, UserHandle.USER_CURRENT);
+        int batterystyle = mSystemStore.getInt(
+                Settings.System.STATUS_BAR_BATTERY_STYLE, BATTERY_STYLE_PORTRAIT);
+        int batterypercent = mSystemStore.getInt(
+                Settings.System.STATUS_BAR_SHOW_BATTERY_PERCENT, 0);
 
         mBatteryStyle.setOnPreferenceChangeListener(this);
 
@@ -134,8 +146,8 @@ public class StatusBar extends SettingsPreferenceFragment implements
             return true;
         } else if (preference == mBatteryStyle) {
             int value = Integer.parseInt((String) newValue);
-            int batterypercent = Settings.System.getIntForUser(resolver,
-                    Settings.System.STATUS_BAR_SHOW_BATTERY_PERCENT, 0, UserHandle.USER_CURRENT);
+            int batterypercent = mSystemStore.getInt(
+                    Settings.System.STATUS_BAR_SHOW_BATTERY_PERCENT, 0);
             mBatteryPercent.setEnabled(
                     value != BATTERY_STYLE_TEXT && value != BATTERY_STYLE_HIDDEN);
             mBatteryTextCharging.setEnabled(value == BATTERY_STYLE_HIDDEN ||
@@ -143,8 +155,8 @@ public class StatusBar extends SettingsPreferenceFragment implements
             return true;
         } else if (preference == mBatteryPercent) {
             int value = Integer.parseInt((String) newValue);
-            int batterystyle = Settings.System.getIntForUser(resolver,
-                    Settings.System.STATUS_BAR_BATTERY_STYLE, BATTERY_STYLE_PORTRAIT, UserHandle.USER_CURRENT);
+            int batterystyle = mSystemStore.getInt(
+                    Settings.System.STATUS_BAR_BATTERY_STYLE, BATTERY_STYLE_PORTRAIT);
             mBatteryTextCharging.setEnabled(batterystyle == BATTERY_STYLE_HIDDEN ||
                     (batterystyle != BATTERY_STYLE_TEXT && value != 2));
             return true;
@@ -16,16 +16,27 @@
 package org.evolution.settings.fragments.themes;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
 import android.os.SystemProperties;
 import android.provider.SearchIndexableResource;
 import android.provider.Settings;
+import android.text.format.Formatter;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.Toast;
 
 import androidx.documentfile.provider.DocumentFile;
@@ -42,14 +53,21 @@ import com.android.settingslib.search.Indexable;
 import com.android.settingslib.search.SearchIndexable;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipFile;
 
 import org.evolution.settings.preferences.BootAnimationPreviewPreference;
+import org.evolution.settings.utils.BitmapMemoryGovernor;
+import org.evolution.settings.utils.BootAnimationBenchmark;
+import org.evolution.settings.utils.BootAnimationIndex;
+import org.evolution.settings.utils.BootAnimationInstaller;
+import org.evolution.settings.utils.BootAnimationOptimizer;
+import org.evolution.settings.utils.BootAnimationPlayer;
+import org.evolution.settings.utils.BootAnimationUtils;
 
 @SearchIndexable
 public class BootAnimation extends SettingsPreferenceFragment implements OnPreferenceChangeListener {
@@ -57,9 +75,8 @@ public class BootAnimation extends SettingsPreferenceFragment implements OnPrefe
     private static final String BOOTANIMATION_STYLE_KEY = "persist.sys.bootanimation_style";
     private static final String TAG = "BootAnimationSettings";
     private static final int REQUEST_CODE_PICK_ZIP = 1001;
-    private static final String CUSTOM_BOOTANIMATION_FILE = "/data/misc/bootanim/bootanimation.zip";
 
-    private static final String[] PRODUCT_BOOT_ANIMATION_FILES = {
+    static final String[] PRODUCT_BOOT_ANIMATION_FILES = {
         "/product/media/bootanimation.zip",
         "/product/media/bootanimation_evo_reveal.zip",
         "/product/media/bootanimation_aokp.zip",
@@ -75,7 +92,12 @@ public class BootAnimation extends SettingsPreferenceFragment implements OnPrefe
         "/product/media/bootanimation_valorant.zip"
     };
 
+    private static final ExecutorService sPreviewExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
     private ListPreference mBootAnimationStyle;
+    private AlertDialog mCustomPreviewDialog;
+    private BootAnimationPlayer mCustomPreviewPlayer;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -92,6 +114,17 @@ public class BootAnimation extends SettingsPreferenceFragment implements OnPrefe
             mBootAnimationStyle.setValue(String.valueOf(currentStyle));
             updateBootAnimationPreview();
         }
+
+        // Stop decoding the preview while the screen is not visible
+        BootAnimationPreviewPreference previewPreference =
+                (BootAnimationPreviewPreference) findPreference("boot_animation_preview");
+        if (previewPreference != null) {
+            getLifecycle().addObserver(previewPreference);
+        }
+
+        if (BootAnimationBenchmark.isEnabled()) {
+            BootAnimationBenchmark.start(getContext());
+        }
     }
 
     @Override
@@ -102,8 +135,9 @@ public class BootAnimation extends SettingsPreferenceFragment implements OnPrefe
                 launchFilePicker();
                 return false; // Return false to prevent immediate property update
             } else {
+                // The install runs in the background, the value is set once it succeeded.
                 copyProductFile(style);
-                return true;
+                return false;
             }
         }
         return false;
@@ -128,61 +162,167 @@ public class BootAnimation extends SettingsPreferenceFragment implements OnPrefe
     }
 
     private void handleSelectedFile(Uri uri) {
-        try {
-            // Copy the selected file to the custom boot animation location
-            InputStream inputStream = getContext().getContentResolver().openInputStream(uri);
-            File customBootAnimation = new File(CUSTOM_BOOTANIMATION_FILE);
-            // Ensure the directory exists
-            customBootAnimation.getParentFile().mkdirs();
-            try (OutputStream outputStream = new FileOutputStream(customBootAnimation)) {
-                byte[] buffer = new byte[1024];
-                int length;
-                while ((length = inputStream.read(buffer)) > 0) {
-                    outputStream.write(buffer, 0, length);
-                }
+        // Preview the zip in place, it is only installed once the user confirms
+        View view = LayoutInflater.from(getContext())
+                .inflate(R.layout.boot_animation_preview, null);
+        ImageView imageView = view.findViewById(R.id.boot_animation_preview_image);
+        ProgressBar spinner = view.findViewById(R.id.boot_animation_loading_spinner);
+        CancellationSignal signal = new CancellationSignal();
+        mCustomPreviewDialog = new AlertDialog.Builder(getContext())
+                .setTitle(R.string.boot_animation_custom_preview_title)
+                .setView(view)
+                .setPositiveButton(R.string.boot_animation_custom_preview_apply,
+                        (dialog, which) -> installSelectedFile(uri))
+                .setNegativeButton(android.R.string.cancel, null)
+                .setOnDismissListener(dialog -> {
+                    signal.cancel();
+                    stopCustomPreview();
+                })
+                .show();
+
+        imageView.setVisibility(View.INVISIBLE);
+        spinner.setVisibility(View.VISIBLE);
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        ViewGroup.LayoutParams lp = imageView.getLayoutParams();
+        int targetWidth = metrics.widthPixels;
+        int targetHeight = lp != null && lp.height > 0 ? lp.height : metrics.heightPixels;
+        Context context = getContext().getApplicationContext();
+        sPreviewExecutor.execute(() -> {
+            BootAnimationPlayer player = null;
+            try {
+                player = createCustomPreview(context, uri, imageView, targetWidth,
+                        targetHeight, signal);
+            } catch (IOException e) {
+                Log.e(TAG, "Error previewing " + uri, e);
+            } catch (OperationCanceledException e) {
+                return;
             }
-            inputStream.close();
-            // Update system property to use custom boot animation
-            SystemProperties.set(BOOTANIMATION_STYLE_KEY, "13"); // Custom option value
-            updateBootAnimationPreview();
-            // Force the preference to update to the custom option
-            mBootAnimationStyle.setValue("13"); // Set to the custom option
-            Toast.makeText(getContext(), R.string.boot_animation_applied, Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            Log.e(TAG, "Error copying custom boot animation", e);
-        }
+            final BootAnimationPlayer result = player;
+            sMainHandler.post(() -> {
+                if (signal.isCanceled()) {
+                    if (result != null) {
+                        result.stop();
+                    }
+                    return;
+                }
+                if (result == null) {
+                    spinner.setVisibility(View.GONE);
+                    return;
+                }
+                mCustomPreviewPlayer = result;
+                result.setListener(new BootAnimationPlayer.Listener() {
+                    @Override
+                    public void onFirstFrame() {
+                        spinner.setVisibility(View.GONE);
+                        imageView.setVisibility(View.VISIBLE);
+                    }
+
+                    @Override
+                    public void onNoFrames() {
+                        spinner.setVisibility(View.GONE);
+                    }
+                });
+                result.start();
+            });
+        });
     }
 
-    private void copyProductFile(int style) {
+    private static BootAnimationPlayer createCustomPreview(Context context, Uri uri,
+            ImageView imageView, int targetWidth, int targetHeight, CancellationSignal signal)
+            throws IOException {
+        ZipFile zipFile = BootAnimationUtils.openZipFile(context, uri);
+        BootAnimationIndex index = null;
         try {
-            if (style < 0 || style >= PRODUCT_BOOT_ANIMATION_FILES.length) {
-                Log.e(TAG, "Invalid style index");
-                return;
+            index = BootAnimationIndex.build(zipFile, signal);
+            List<BootAnimationUtils.Frame> frames =
+                    BootAnimationUtils.getBootAnimationFrameList(index, signal);
+            if (frames.isEmpty()) {
+                throw new IOException("No frames in " + uri);
             }
-            String productFilePath = PRODUCT_BOOT_ANIMATION_FILES[style];
-            File productFile = new File(productFilePath);
-            if (!productFile.exists()) {
-                Log.e(TAG, "Product file does not exist: " + productFilePath);
-                return;
+            BootAnimationPlayer player = new BootAnimationPlayer(imageView, index, frames);
+            player.setTargetSize(targetWidth, targetHeight);
+            player.setMemoryGovernor(BitmapMemoryGovernor.create(context));
+            return player;
+        } catch (IOException | RuntimeException e) {
+            zipFile.close();
+            throw e;
+        }
+    }
+
+    private void stopCustomPreview() {
+        if (mCustomPreviewPlayer != null) {
+            mCustomPreviewPlayer.stop();
+            mCustomPreviewPlayer = null;
+        }
+        mCustomPreviewDialog = null;
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        if (mCustomPreviewDialog != null) {
+            mCustomPreviewDialog.dismiss();
+        }
+    }
+
+    private void installSelectedFile(Uri uri) {
+        // Copy the selected file to the custom boot animation location
+        BootAnimationInstaller.install(getContext(), uri, new BootAnimationInstaller.Callback() {
+            @Override
+            public void onOptimized(BootAnimationOptimizer.Result result) {
+                if (!isAdded()) {
+                    return;
+                }
+                long sizeChange = result.getSizeChange();
+                String size = Formatter.formatShortFileSize(getContext(), Math.abs(sizeChange));
+                Toast.makeText(getContext(), getString(sizeChange > 0
+                        ? R.string.boot_animation_optimized_larger
+                        : R.string.boot_animation_optimized,
+                        size, result.getDecodeSavingPercent()), Toast.LENGTH_SHORT).show();
             }
-            InputStream inputStream = new FileInputStream(productFile);
-            File customBootAnimation = new File(CUSTOM_BOOTANIMATION_FILE);
-            customBootAnimation.getParentFile().mkdirs();
-            try (OutputStream outputStream = new FileOutputStream(customBootAnimation)) {
-                byte[] buffer = new byte[1024];
-                int length;
-                while ((length = inputStream.read(buffer)) > 0) {
-                    outputStream.write(buffer, 0, length);
+
+            @Override
+            public void onResult(boolean success) {
+                if (!success) {
+                    Log.e(TAG, "Error copying custom boot animation");
+                    return;
                 }
+                // Update system property to use custom boot animation
+                SystemProperties.set(BOOTANIMATION_STYLE_KEY, "13"); // Custom option value
+                onBootAnimationApplied("13");
+            }
+        });
+    }
+
+    private void copyProductFile(int style) {
+        if (style < 0 || style >= PRODUCT_BOOT_ANIMATION_FILES.length) {
+            Log.e(TAG, "Invalid style index");
+            return;
+        }
+        String productFilePath = PRODUCT_BOOT_ANIMATION_FILES[style];
+        File productFile = new File(productFilePath);
+        if (!productFile.exists()) {
+            Log.e(TAG, "Product file does not exist: " + productFilePath);
+            return;
+        }
+        BootAnimationInstaller.install(getContext(), productFile, success -> {
+            if (!success) {
+                Log.e(TAG, "Error copying boot animation " + productFilePath);
+                return;
             }
-            inputStream.close();
             SystemProperties.set(BOOTANIMATION_STYLE_KEY, String.valueOf(style));
-            updateBootAnimationPreview();
-            mBootAnimationStyle.setValue(String.valueOf(style));
-            Toast.makeText(getContext(), R.string.boot_animation_applied, Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            Log.e(TAG, "Error copying custom boot animation", e);
+            onBootAnimationApplied(String.valueOf(style));
+        });
+    }
+
+    private void onBootAnimationApplied(String style) {
+        if (!isAdded()) {
+            return;
         }
+        updateBootAnimationPreview();
+        // Force the preference to update to the applied option
+        mBootAnimationStyle.setValue(style);
+        Toast.makeText(getContext(), R.string.boot_animation_applied, Toast.LENGTH_SHORT).show();
     }
 
     private void updateBootAnimationPreview() {
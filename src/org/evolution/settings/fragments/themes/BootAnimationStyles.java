@@ -0,0 +1,246 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.fragments.themes;
+
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
+import com.android.settings.R;
+import com.android.settings.SettingsPreferenceFragment;
+
+import org.evolution.settings.utils.BootAnimationCatalog;
+import org.evolution.settings.utils.BootAnimationIndex;
+import org.evolution.settings.utils.BootAnimationPlayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Catalog of the bundled boot animations. Every style shows a poster frame, and tapping
+ * it plays a short low resolution loop, without installing anything.
+ */
+public class BootAnimationStyles extends SettingsPreferenceFragment {
+
+    private static final String TAG = "BootAnimationStyles";
+
+    private static final int TILE_SIZE_DP = 80;
+
+    private RecyclerView mRecyclerView;
+    private BootAnimationStyleAdapter mAdapter;
+    private String[] mTitles;
+    private Bitmap[] mPosters;
+    private File[] mLoops;
+    private final List<Future<?>> mPrefetches = new ArrayList<>();
+    private int mTileSize;
+
+    private BootAnimationPlayer mPlayer;
+    private ImageView mPlayerView;
+    private int mPlayingPosition = RecyclerView.NO_POSITION;
+    private Future<?> mOpening;
+    private int mPlayRequest;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        getActivity().setTitle(R.string.themes_boot_animation_styles_title);
+
+        mTitles = getResources().getStringArray(R.array.themes_boot_animation_entries);
+        mPosters = new Bitmap[BootAnimation.PRODUCT_BOOT_ANIMATION_FILES.length];
+        mLoops = new File[BootAnimation.PRODUCT_BOOT_ANIMATION_FILES.length];
+        mTileSize = Math.round(TILE_SIZE_DP * getResources().getDisplayMetrics().density);
+    }
+
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
+            @Nullable Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.item_view, container, false);
+
+        mRecyclerView = (RecyclerView) view.findViewById(R.id.recycler_view);
+        mRecyclerView.setLayoutManager(new GridLayoutManager(getActivity(), 3));
+        mAdapter = new BootAnimationStyleAdapter();
+        mRecyclerView.setAdapter(mAdapter);
+
+        return view;
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        for (int i = 0; i < BootAnimation.PRODUCT_BOOT_ANIMATION_FILES.length; i++) {
+            if (mPosters[i] != null || hasStaticPreview(i)) {
+                continue;
+            }
+            File source = new File(BootAnimation.PRODUCT_BOOT_ANIMATION_FILES[i]);
+            mPrefetches.add(BootAnimationCatalog.prefetch(getContext(), i, source, mTileSize,
+                    this::onLoopReady));
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        for (Future<?> prefetch : mPrefetches) {
+            prefetch.cancel(true);
+        }
+        mPrefetches.clear();
+        stopPlayer();
+    }
+
+    @Override
+    public int getMetricsCategory() {
+        return MetricsEvent.EVOLVER;
+    }
+
+    private void onLoopReady(int position, Bitmap poster, File loop) {
+        if (mAdapter == null || getActivity() == null) {
+            poster.recycle();
+            return;
+        }
+        mPosters[position] = poster;
+        mLoops[position] = loop;
+        if (position != mPlayingPosition) {
+            mAdapter.notifyItemChanged(position);
+        }
+    }
+
+    private void playLoop(int position, ImageView imageView) {
+        stopPlayer();
+        File loop = mLoops[position];
+        if (loop == null) {
+            return;
+        }
+        // The tile shows as playing right away, the loop starts once it has been opened.
+        mPlayerView = imageView;
+        mPlayingPosition = position;
+        final int request = mPlayRequest;
+        mOpening = BootAnimationCatalog.open(loop, (index, frames) -> {
+            if (request != mPlayRequest) {
+                closeIndex(index);
+                return;
+            }
+            mOpening = null;
+            if (index == null) {
+                stopPlayer();
+                if (mAdapter != null) {
+                    mAdapter.notifyItemChanged(position);
+                }
+                return;
+            }
+            mPlayer = new BootAnimationPlayer(imageView, index, frames);
+            mPlayer.setTargetSize(mTileSize, mTileSize);
+            mPlayer.start();
+        });
+    }
+
+    private static void closeIndex(BootAnimationIndex index) {
+        if (index == null) {
+            return;
+        }
+        try {
+            index.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing catalog loop", e);
+        }
+    }
+
+    private void stopPlayer() {
+        // A loop still being opened is closed by its callback.
+        mPlayRequest++;
+        if (mOpening != null) {
+            mOpening.cancel(false);
+            mOpening = null;
+        }
+        if (mPlayer != null) {
+            mPlayer.stop();
+            mPlayer = null;
+        }
+        if (mPlayerView != null && mPlayingPosition != RecyclerView.NO_POSITION) {
+            mPlayerView.setImageBitmap(mPosters[mPlayingPosition]);
+        }
+        mPlayerView = null;
+        mPlayingPosition = RecyclerView.NO_POSITION;
+    }
+
+    private static boolean hasStaticPreview(int position) {
+        return position == 7 || position == 8;
+    }
+
+    private class BootAnimationStyleAdapter
+            extends RecyclerView.Adapter<BootAnimationStyleAdapter.StyleViewHolder> {
+
+        @Override
+        public StyleViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View v = LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.item_option, parent, false);
+            return new StyleViewHolder(v);
+        }
+
+        @Override
+        public void onBindViewHolder(StyleViewHolder holder, final int position) {
+            if (holder.image == mPlayerView && position != mPlayingPosition) {
+                stopPlayer();
+            }
+            holder.name.setText(mTitles[position]);
+            if (hasStaticPreview(position)) {
+                holder.image.setImageResource(
+                        position == 7 ? R.drawable.google_gemini : R.drawable.google_monet);
+            } else if (position != mPlayingPosition) {
+                holder.image.setImageBitmap(mPosters[position]);
+            }
+            holder.itemView.setActivated(position == mPlayingPosition);
+            holder.itemView.setOnClickListener(v -> {
+                int previous = mPlayingPosition;
+                if (position == previous) {
+                    stopPlayer();
+                } else if (!hasStaticPreview(position)) {
+                    playLoop(position, holder.image);
+                }
+                if (previous != RecyclerView.NO_POSITION) {
+                    notifyItemChanged(previous);
+                }
+                holder.itemView.setActivated(position == mPlayingPosition);
+            });
+        }
+
+        @Override
+        public void onViewRecycled(StyleViewHolder holder) {
+            if (holder.image == mPlayerView) {
+                stopPlayer();
+            }
+        }
+
+        @Override
+        public int getItemCount() {
+            return BootAnimation.PRODUCT_BOOT_ANIMATION_FILES.length;
+        }
+
+        class StyleViewHolder extends RecyclerView.ViewHolder {
+            TextView name;
+            ImageView image;
+
+            StyleViewHolder(View itemView) {
+                super(itemView);
+                name = (TextView) itemView.findViewById(R.id.option_label);
+                image = (ImageView) itemView.findViewById(R.id.option_thumbnail);
+            }
+        }
+    }
+}
@@ -20,11 +20,16 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.AnimationDrawable;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.UserHandle;
 import android.provider.Settings;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -48,13 +53,28 @@ import com.android.settings.R;
 import com.android.settings.SettingsActivity;
 import com.android.settings.SettingsPreferenceFragment;
 
+import org.evolution.settings.utils.BitmapMemoryGovernor;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class UdfpsAnimations extends SettingsPreferenceFragment {
 
+    private static final String TAG = "UdfpsAnimations";
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+    private static final int BYTES_PER_PIXEL = 4;
+
     private RecyclerView mRecyclerView;
     private String mPkg = "org.evolution.udfps.animations";
     private AnimationDrawable animation;
+    private ImageView mAnimationView;
+    private long mAnimationBytes;
+    private BitmapMemoryGovernor mMemoryGovernor;
 
     private Resources udfpsRes;
 
@@ -68,6 +88,7 @@ public class UdfpsAnimations extends SettingsPreferenceFragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         getActivity().setTitle(R.string.themes_udfps_animation_title);
+        mMemoryGovernor = BitmapMemoryGovernor.create(getActivity());
 
         loadResources();
     }
@@ -103,11 +124,127 @@ public class UdfpsAnimations extends SettingsPreferenceFragment {
         return view;
     }
 
+    @Override
+    public void onStop() {
+        super.onStop();
+        releaseAnimation();
+    }
+
     @Override
     public int getMetricsCategory() {
         return MetricsEvent.EVOLVER;
     }
 
+    private void playAnimation(ImageView view, String drawableName) {
+        releaseAnimation();
+        AnimationDrawable drawable = loadAnimation(drawableName);
+        if (drawable == null) {
+            // Anything else could only be measured after inflating it, which is the OOM
+            // this avoids, so leave it without a preview.
+            Log.w(TAG, "Not previewing " + drawableName + ", not a list of bitmap frames");
+            return;
+        }
+        long bytes = BitmapMemoryGovernor.getByteCount(drawable);
+        if (!mMemoryGovernor.tryAcquire(bytes)) {
+            Log.w(TAG, "Animation needs " + bytes + " bytes, over the budget of "
+                    + mMemoryGovernor.getBudget());
+            return;
+        }
+        mAnimationView = view;
+        mAnimationBytes = bytes;
+        view.setBackgroundDrawable(drawable);
+        animation = drawable;
+        animation.setOneShot(true);
+        animation.start();
+    }
+
+    /**
+     * Decodes an animation-list of bitmap frames to fit the memory budget. The size of
+     * every frame is read from its header first. When the frames do not fit at full size
+     * they are subsampled, and past the largest sample size runs of frames are merged
+     * into their first one. Returns null if the animation is not a plain list of bitmaps.
+     */
+    private AnimationDrawable loadAnimation(String drawableName) {
+        if (udfpsRes == null) {
+            return null;
+        }
+        int resId = udfpsRes.getIdentifier(drawableName, "drawable", mPkg);
+        if (resId == 0) {
+            return null;
+        }
+        List<Integer> frames = new ArrayList<>();
+        List<Integer> durations = new ArrayList<>();
+        try (XmlResourceParser parser = udfpsRes.getXml(resId)) {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG || !"item".equals(parser.getName())) {
+                    continue;
+                }
+                int frame = parser.getAttributeResourceValue(ANDROID_NS, "drawable", 0);
+                if (frame == 0) {
+                    return null;
+                }
+                frames.add(frame);
+                durations.add(parser.getAttributeIntValue(ANDROID_NS, "duration", 0));
+            }
+        } catch (XmlPullParserException | IOException | Resources.NotFoundException e) {
+            // A bitmap or other drawable rather than an XML animation-list.
+            return null;
+        }
+        if (frames.isEmpty()) {
+            return null;
+        }
+
+        long bytes = 0;
+        for (int frame : frames) {
+            // decodeResource fills in the densities of the first frame, so never reuse options.
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeResource(udfpsRes, frame, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            bytes += (long) options.outWidth * options.outHeight * BYTES_PER_PIXEL;
+        }
+        int sampleSize = mMemoryGovernor.getSampleSize(bytes);
+        long sampledBytes = bytes / ((long) sampleSize * sampleSize);
+        long available = Math.max(mMemoryGovernor.getAvailableBytes(), 1);
+        int step = (int) Math.min(frames.size(), (sampledBytes + available - 1) / available);
+        if (sampleSize > 1 || step > 1) {
+            Log.d(TAG, "Animation needs " + bytes + " bytes, decoding at 1/" + sampleSize
+                    + " with every " + step + " frames merged");
+        }
+
+        AnimationDrawable animation = new AnimationDrawable();
+        for (int i = 0; i < frames.size(); i += step) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            Bitmap bitmap = BitmapFactory.decodeResource(udfpsRes, frames.get(i), options);
+            if (bitmap == null) {
+                return null;
+            }
+            int duration = 0;
+            for (int j = i; j < Math.min(i + step, frames.size()); j++) {
+                duration += durations.get(j);
+            }
+            animation.addFrame(new BitmapDrawable(udfpsRes, bitmap), duration);
+        }
+        return animation;
+    }
+
+    private void releaseAnimation() {
+        if (animation != null) {
+            animation.stop();
+            animation = null;
+        }
+        if (mAnimationView != null) {
+            mAnimationView.setBackground(null);
+            mAnimationView = null;
+        }
+        mMemoryGovernor.release(mAnimationBytes);
+        mAnimationBytes = 0;
+    }
+
     public class UdfpsAnimAdapter extends RecyclerView.Adapter<UdfpsAnimAdapter.UdfpsAnimViewHolder> {
         Context context;
         String mSelectedAnim;
@@ -150,10 +287,7 @@ public class UdfpsAnimations extends SettingsPreferenceFragment {
                     updateActivatedStatus(mSelectedAnim, false);
                     updateActivatedStatus(animName, true);
                     mSelectedAnim = animName;
-                    holder.image.setBackgroundDrawable(getDrawable(v.getContext(), mAnims[position]));
-                    animation = (AnimationDrawable) holder.image.getBackground();
-                    animation.setOneShot(true);
-                    animation.start();
+                    playAnimation(holder.image, mAnims[position]);
                     Settings.System.putInt(getActivity().getContentResolver(),
                             Settings.System.UDFPS_ANIM_STYLE, position);
                 }
@@ -16,26 +16,52 @@
 package org.evolution.settings.preferences;
 
 import android.content.Context;
-import android.graphics.drawable.AnimationDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
 
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceViewHolder;
 
 import com.android.settings.R;
 
+import org.evolution.settings.utils.BitmapMemoryGovernor;
+import org.evolution.settings.utils.BootAnimationIndex;
+import org.evolution.settings.utils.BootAnimationPlayer;
+import org.evolution.settings.utils.BootAnimationPreviewCache;
 import org.evolution.settings.utils.BootAnimationUtils;
 
-public class BootAnimationPreviewPreference extends Preference {
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipFile;
 
+public class BootAnimationPreviewPreference extends Preference
+        implements DefaultLifecycleObserver {
+
+    private static final String TAG = "BootAnimationPreviewPreference";
+
+    /** Previews load one at a time, a cancelled load gives way at its next check. */
+    private static final ExecutorService sLoadExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
     private ImageView mImageView;
     private ProgressBar mLoadingSpinner;
-    private LoadPreviewTask mCurrentTask;
+    private CancellationSignal mLoadSignal;
+    private BootAnimationPlayer mPlayer;
 
     public BootAnimationPreviewPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -45,74 +71,202 @@ public class BootAnimationPreviewPreference extends Preference {
     @Override
     public void onBindViewHolder(PreferenceViewHolder holder) {
         super.onBindViewHolder(holder);
-        mImageView = (ImageView) holder.findViewById(R.id.boot_animation_preview_image);
+        ImageView imageView = (ImageView) holder.findViewById(R.id.boot_animation_preview_image);
+        boolean alreadyLoaded = imageView == mImageView
+                && (mPlayer != null || mLoadSignal != null);
+        mImageView = imageView;
         mLoadingSpinner = (ProgressBar) holder.findViewById(R.id.boot_animation_loading_spinner);
-        loadBootAnimationPreview();
+        if (!alreadyLoaded) {
+            loadBootAnimationPreview();
+        }
     }
 
     public void loadBootAnimationPreview() {
-        if (mCurrentTask != null && mCurrentTask.getStatus() != AsyncTask.Status.FINISHED) {
-            mCurrentTask.cancel(true);
-        }
+        cancelLoad();
+        stopPlayer();
         int bootAnimStyle = BootAnimationUtils.getBootAnimStyle();
         if (bootAnimStyle == 7 || bootAnimStyle == 8) {
+            if (mLoadingSpinner != null) {
+                mLoadingSpinner.setVisibility(View.GONE);
+            }
             if (mImageView != null) {
                 Drawable drawable = getContext().getDrawable(
                         bootAnimStyle == 7 ? R.drawable.google_gemini : R.drawable.google_monet);
                 mImageView.setImageDrawable(drawable);
+                mImageView.setVisibility(View.VISIBLE);
             }
         } else {
-            mCurrentTask = new LoadPreviewTask();
-            mCurrentTask.execute();
+            startLoad();
         }
     }
 
-    private class LoadPreviewTask extends AsyncTask<Void, Void, AnimationDrawable> {
-        @Override
-        protected AnimationDrawable doInBackground(Void... voids) {
-            if (isCancelled()) return null;
-            AnimationDrawable originalDrawable = BootAnimationUtils.getBootAnimationFrames(getContext());
-            if (originalDrawable == null) {
-                return null;
+    @Override
+    public void onStart(LifecycleOwner owner) {
+        if (mImageView != null && mPlayer == null && mLoadSignal == null) {
+            loadBootAnimationPreview();
+        }
+    }
+
+    @Override
+    public void onStop(LifecycleOwner owner) {
+        cancelLoad();
+        stopPlayer();
+    }
+
+    @Override
+    public void onDetached() {
+        super.onDetached();
+        cancelLoad();
+        stopPlayer();
+    }
+
+    private void cancelLoad() {
+        if (mLoadSignal != null) {
+            mLoadSignal.cancel();
+            mLoadSignal = null;
+        }
+    }
+
+    private void stopPlayer() {
+        if (mPlayer != null) {
+            mPlayer.stop();
+            mPlayer = null;
+        }
+    }
+
+    private void startLoad() {
+        if (mImageView == null) {
+            return;
+        }
+        // Keep the view laid out while loading so its size is known for decoding.
+        mImageView.setVisibility(View.INVISIBLE);
+        DisplayMetrics metrics = getContext().getResources().getDisplayMetrics();
+        ViewGroup.LayoutParams lp = mImageView.getLayoutParams();
+        final int targetWidth = mImageView.getWidth() > 0
+                ? mImageView.getWidth() : metrics.widthPixels;
+        final int targetHeight = mImageView.getHeight() > 0 ? mImageView.getHeight()
+                : (lp != null && lp.height > 0 ? lp.height : metrics.heightPixels);
+        if (mLoadingSpinner != null) {
+            mLoadingSpinner.setVisibility(View.VISIBLE);
+        }
+
+        final CancellationSignal signal = new CancellationSignal();
+        final Context context = getContext();
+        final ImageView imageView = mImageView;
+        mLoadSignal = signal;
+        sLoadExecutor.execute(() -> {
+            BootAnimationPlayer player;
+            try {
+                player = createPlayer(context, imageView, targetWidth, targetHeight, signal);
+            } catch (OperationCanceledException e) {
+                return;
             }
-            AnimationDrawable fixedDrawable = new AnimationDrawable();
-            for (int i = 0; i < originalDrawable.getNumberOfFrames(); i++) {
-                if (isCancelled()) return null;
-                Drawable frame = originalDrawable.getFrame(i);
-                int duration = originalDrawable.getDuration(i);
-                if (duration < 16) { // 16 ms is around 60fps
-                    duration = 1000 / 60; // Set to 60fps as a fallback
+            mHandler.post(() -> onPlayerCreated(player, signal));
+        });
+    }
+
+    private static BootAnimationPlayer createPlayer(Context context, ImageView imageView,
+            int targetWidth, int targetHeight, CancellationSignal signal) {
+        signal.throwIfCanceled();
+        String selectedBootAnimation = BootAnimationUtils.getSelectedBootAnimation();
+        if (selectedBootAnimation == null) {
+            return null;
+        }
+        File bootAnimationFile = new File(selectedBootAnimation);
+        if (!bootAnimationFile.exists()) {
+            return null;
+        }
+        BootAnimationIndex index = null;
+        try {
+            File cachedPreview = BootAnimationPreviewCache.get(context,
+                    bootAnimationFile, targetWidth, targetHeight);
+            ZipFile zipFile = new ZipFile(
+                    cachedPreview != null ? cachedPreview : bootAnimationFile);
+            try {
+                index = BootAnimationIndex.build(zipFile, signal);
+            } finally {
+                if (index == null) {
+                    zipFile.close();
                 }
-                fixedDrawable.addFrame(frame, duration);
             }
-            fixedDrawable.setOneShot(false); // Ensure the animation loops
-            return fixedDrawable;
+            List<BootAnimationUtils.Frame> frames =
+                    BootAnimationUtils.getBootAnimationFrameList(index, signal);
+            BootAnimationPlayer player = new BootAnimationPlayer(imageView, index, frames);
+            player.setTargetSize(targetWidth, targetHeight);
+            player.setMemoryGovernor(BitmapMemoryGovernor.create(context));
+            signal.throwIfCanceled();
+            if (cachedPreview == null) {
+                player.setCacheWriter(BootAnimationPreviewCache.newWriter(context,
+                        bootAnimationFile, index, frames, targetWidth, targetHeight));
+            }
+            return player;
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening boot animation", e);
+        } catch (OperationCanceledException e) {
+            closeQuietly(index);
+            throw e;
         }
+        closeQuietly(index);
+        return null;
+    }
 
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
-            if (mImageView != null) {
-                mImageView.setVisibility(View.GONE);
-            }
-            if (mLoadingSpinner != null) {
-                mLoadingSpinner.setVisibility(View.VISIBLE);
-            }
+    private static void closeQuietly(BootAnimationIndex index) {
+        if (index == null) {
+            return;
+        }
+        try {
+            index.close();
+        } catch (IOException e) {
+            // Ignored
         }
+    }
 
-        @Override
-        protected void onPostExecute(AnimationDrawable animationDrawable) {
-            if (isCancelled()) return;
-            if (mLoadingSpinner != null) {
-                mLoadingSpinner.setVisibility(View.GONE);
+    private void onPlayerCreated(BootAnimationPlayer player, CancellationSignal signal) {
+        if (signal != mLoadSignal) {
+            // Cancelled after the load finished, nobody shows this player.
+            if (player != null) {
+                player.stop();
             }
-            if (mImageView != null) {
-                mImageView.setVisibility(View.VISIBLE);
+            return;
+        }
+        mLoadSignal = null;
+        if (player == null) {
+            showEmpty();
+            return;
+        }
+        mPlayer = player;
+        mPlayer.setListener(new BootAnimationPlayer.Listener() {
+            @Override
+            public void onFirstFrame() {
+                if (mLoadingSpinner != null) {
+                    mLoadingSpinner.setVisibility(View.GONE);
+                }
+                if (mImageView != null) {
+                    mImageView.setVisibility(View.VISIBLE);
+                }
             }
-            if (animationDrawable != null) {
-                mImageView.setImageDrawable(animationDrawable);
-                animationDrawable.start();
+
+            @Override
+            public void onNoFrames() {
+                if (mPlayer == player) {
+                    mPlayer = null;
+                }
+                showEmpty();
             }
+        });
+        mPlayer.start();
+    }
+
+    /**
+     * Hides the spinner and shows an empty preview, for animations with nothing to play.
+     */
+    private void showEmpty() {
+        if (mLoadingSpinner != null) {
+            mLoadingSpinner.setVisibility(View.GONE);
+        }
+        if (mImageView != null) {
+            mImageView.setImageDrawable(null);
+            mImageView.setVisibility(View.VISIBLE);
         }
     }
 }
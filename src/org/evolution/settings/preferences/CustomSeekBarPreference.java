@@ -289,6 +289,9 @@ public class CustomSeekBarPreference extends Preference implements SeekBar.OnSee
     public void onStartTrackingTouch(SeekBar seekBar) {
         mTrackingValue = mValue;
         mTrackingTouch = true;
+        // Continuous drags would write every step, collapse them to a few writes instead.
+        if (mContinuousUpdates)
+            setWriteBehind(true);
     }
 
     @Override
@@ -296,9 +299,29 @@ public class CustomSeekBarPreference extends Preference implements SeekBar.OnSee
         mTrackingTouch = false;
         if (!mContinuousUpdates)
             onProgressChanged(mSeekBar, getSeekValue(mTrackingValue), false);
+        setWriteBehind(false);
         notifyChanged();
     }
 
+    @Override
+    public void onAttached() {
+        super.onAttached();
+        SettingsCache.registerFlushCallbacks(getContext());
+    }
+
+    @Override
+    public void onDetached() {
+        setWriteBehind(false);
+        super.onDetached();
+    }
+
+    private void setWriteBehind(boolean writeBehind) {
+        PreferenceDataStore dataStore = getPreferenceDataStore();
+        if (dataStore instanceof SettingsStore) {
+            ((SettingsStore) dataStore).setWriteBehind(writeBehind);
+        }
+    }
+
     @Override
     protected void onSetInitialValue(boolean restoreValue, Object defaultValue) {
         if (restoreValue)
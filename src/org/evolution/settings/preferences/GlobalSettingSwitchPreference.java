@@ -6,14 +6,14 @@
 package org.evolution.settings.preferences;
 
 import android.content.Context;
-import android.provider.Settings;
-import android.os.UserHandle;
 import android.util.AttributeSet;
 
 import lineageos.preference.SelfRemovingSwitchPreference;
 
 public class GlobalSettingSwitchPreference extends SelfRemovingSwitchPreference {
 
+    private GlobalSettingsStore mStore;
+
     public GlobalSettingSwitchPreference(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
     }
@@ -28,17 +28,23 @@ public class GlobalSettingSwitchPreference extends SelfRemovingSwitchPreference
 
     @Override
     protected boolean isPersisted() {
-        return Settings.Global.getString(getContext().getContentResolver(), getKey()) != null;
+        return getStore().getString(getKey(), null) != null;
     }
 
     @Override
     protected void putBoolean(String key, boolean value) {
-        Settings.Global.putInt(getContext().getContentResolver(), key, value ? 1 : 0);
+        getStore().putBoolean(key, value);
     }
 
     @Override
     protected boolean getBoolean(String key, boolean defaultValue) {
-        return Settings.Global.getInt(getContext().getContentResolver(),
-                key, defaultValue ? 1 : 0) != 0;
+        return getStore().getBoolean(key, defaultValue);
+    }
+
+    private GlobalSettingsStore getStore() {
+        if (mStore == null) {
+            mStore = new GlobalSettingsStore(getContext().getContentResolver());
+        }
+        return mStore;
     }
 }
@@ -107,13 +107,22 @@ public class OverlaySwitchPreference extends SelfRemovingSwitchPreference {
 
     private OverlayIdentifier getOverlayID(String name) throws IllegalStateException {
         if (mOverlayManager == null) return null;
+        return getOverlayID(mOverlayManager, name);
+    }
+
+    /**
+     * Resolves a preference key, either an overlay package or package:overlayName for one
+     * of several overlays in a package, to its identifier.
+     */
+    public static OverlayIdentifier getOverlayID(OverlayManager overlayManager, String name)
+            throws IllegalStateException {
         if (name.contains(":")) {
             // specific overlay name in a package
             final String[] value = name.split(":");
             final String pkgName = value[0];
             final String overlayName = value[1];
             final List<OverlayInfo> infos =
-                    mOverlayManager.getOverlayInfosForTarget(pkgName, CURRENT);
+                    overlayManager.getOverlayInfosForTarget(pkgName, CURRENT);
             for (OverlayInfo info : infos) {
                 if (overlayName.equals(info.getOverlayName()))
                     return info.getOverlayIdentifier();
@@ -121,6 +130,9 @@ public class OverlaySwitchPreference extends SelfRemovingSwitchPreference {
             throw new IllegalStateException("No overlay found for " + name);
         }
         // package with only one overlay
-        return mOverlayManager.getOverlayInfo(name, CURRENT).getOverlayIdentifier();
+        final OverlayInfo info = overlayManager.getOverlayInfo(name, CURRENT);
+        if (info == null)
+            throw new IllegalStateException("No overlay found for " + name);
+        return info.getOverlayIdentifier();
     }
 }
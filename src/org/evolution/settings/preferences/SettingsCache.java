@@ -0,0 +1,591 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.preferences;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lineageos.providers.LineageSettings;
+
+/**
+ * Read-through cache of one settings namespace for one user.
+ *
+ * Values are read from the provider the first time they are asked for and kept until the
+ * namespace reports a change. Every cache has a single {@link ContentObserver} on its
+ * namespace, shared by all the stores and preferences reading through it, which drops
+ * the changed key, or everything when the provider does not say which key changed.
+ *
+ * Writes can also be deferred with {@link #putStringDeferred}: they show up in reads right
+ * away, and every key is written at most once per {@link #WRITE_BEHIND_DELAY_MS} with its
+ * last value. Pending writes are flushed when an activity pauses or memory gets trimmed,
+ * once {@link #registerFlushCallbacks} has been called.
+ */
+public class SettingsCache {
+
+    private static final String TAG = "SettingsCache";
+
+    public static final int SYSTEM = 0;
+    public static final int SECURE = 1;
+    public static final int GLOBAL = 2;
+    public static final int LINEAGE_SYSTEM = 3;
+    public static final int LINEAGE_SECURE = 4;
+    private static final int NAMESPACE_COUNT = 5;
+
+    private static final String[] NAMESPACE_NAMES = {
+        "system", "secure", "global", "lineage_system", "lineage_secure",
+    };
+
+    /** Stands in for keys that are not set, which are cached as well. */
+    private static final String NOT_SET = new String();
+
+    private static final long WRITE_BEHIND_DELAY_MS = 100;
+    /** Key prefetch queries are recorded under in {@link SettingsStats}. */
+    private static final String PREFETCH_KEY = "<prefetch>";
+    /** Key bulk writes are recorded under in {@link SettingsStats}. */
+    private static final String BATCH_KEY = "<batch>";
+    private static final String[] PREFETCH_PROJECTION = {
+        Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE,
+    };
+
+    private static final SparseArray<SettingsCache> sCaches = new SparseArray<>();
+    private static Handler sWriteHandler;
+    private static boolean sFlushCallbacksRegistered;
+
+    private final int mNamespace;
+    private final int mUserId;
+    private final Map<String, String> mValues = new HashMap<>();
+    // Bumped on every invalidation, so reads racing with a change are not cached.
+    private long mGeneration;
+    private long mHits;
+    private long mMisses;
+    private long mPrefetched;
+
+    // Deferred writes in order, the newest value of each key wins.
+    private final Map<String, String> mPending = new LinkedHashMap<>();
+    private ContentResolver mPendingResolver;
+    // Held while writing to the provider, so a flush never lands after a newer write.
+    private final Object mWriteLock = new Object();
+    private final Runnable mFlush = this::flush;
+    private long mWrites;
+    private long mCoalesced;
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            invalidate(uri != null ? uri.getLastPathSegment() : null);
+        }
+    };
+
+    private SettingsCache(int namespace, int userId) {
+        mNamespace = namespace;
+        mUserId = userId;
+    }
+
+    /**
+     * Returns the cache of the given namespace for the current user, creating it and
+     * registering its observer on first use.
+     */
+    public static SettingsCache get(ContentResolver resolver, int namespace) {
+        // Global settings are shared by all users.
+        int userId = namespace == GLOBAL ? UserHandle.USER_SYSTEM
+                : ActivityManager.getCurrentUser();
+        int id = userId * NAMESPACE_COUNT + namespace;
+        synchronized (sCaches) {
+            SettingsCache cache = sCaches.get(id);
+            if (cache == null) {
+                cache = new SettingsCache(namespace, userId);
+                if (namespace == GLOBAL) {
+                    resolver.registerContentObserver(cache.getUri(), true, cache.mObserver);
+                } else {
+                    resolver.registerContentObserver(cache.getUri(), true, cache.mObserver,
+                            userId);
+                }
+                sCaches.put(id, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Flushes all caches when an activity of the app pauses or the app is asked to trim
+     * memory, which is the last reliable point before the process may be killed.
+     */
+    public static void registerFlushCallbacks(Context context) {
+        Context appContext = context.getApplicationContext();
+        if (!(appContext instanceof Application)) {
+            return;
+        }
+        synchronized (sCaches) {
+            if (sFlushCallbacksRegistered) {
+                return;
+            }
+            sFlushCallbacksRegistered = true;
+        }
+        FlushCallbacks callbacks = new FlushCallbacks();
+        ((Application) appContext).registerActivityLifecycleCallbacks(callbacks);
+        appContext.registerComponentCallbacks(callbacks);
+    }
+
+    /**
+     * Writes out the pending writes of every cache.
+     */
+    public static void flushAll() {
+        List<SettingsCache> caches = new ArrayList<>();
+        synchronized (sCaches) {
+            for (int i = 0; i < sCaches.size(); i++) {
+                caches.add(sCaches.valueAt(i));
+            }
+        }
+        for (SettingsCache cache : caches) {
+            cache.flush();
+        }
+    }
+
+    /**
+     * Dumps the size, hit rate and write counts of every cache.
+     */
+    public static void dump(PrintWriter writer) {
+        synchronized (sCaches) {
+            for (int i = 0; i < sCaches.size(); i++) {
+                writer.println(sCaches.valueAt(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the stable name of a namespace, as used in dumps and backups.
+     */
+    public static String getNamespaceName(int namespace) {
+        return NAMESPACE_NAMES[namespace];
+    }
+
+    /**
+     * Returns the namespace of the given name, or -1 if there is none.
+     */
+    public static int getNamespace(String name) {
+        for (int i = 0; i < NAMESPACE_COUNT; i++) {
+            if (NAMESPACE_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getNamespace() {
+        return mNamespace;
+    }
+
+    public int getUserId() {
+        return mUserId;
+    }
+
+    public String getString(ContentResolver resolver, String key) {
+        long generation;
+        synchronized (this) {
+            if (mPending.containsKey(key)) {
+                mHits++;
+                return mPending.get(key);
+            }
+            String value = mValues.get(key);
+            if (value != null) {
+                mHits++;
+                return value == NOT_SET ? null : value;
+            }
+            mMisses++;
+            generation = mGeneration;
+        }
+        long start = SettingsStats.start();
+        String value = readString(resolver, key);
+        SettingsStats.recordRead(NAMESPACE_NAMES[mNamespace], key, start);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mValues.put(key, value != null ? value : NOT_SET);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Loads the given keys with a single query of the whole namespace, so later reads of
+     * them are hits. Keys that are already cached or pending keep their value. Does IPC,
+     * so call it off the main thread.
+     */
+    public void prefetch(ContentResolver resolver, Collection<String> keys) {
+        long generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        Map<String, String> values = new HashMap<>();
+        long start = SettingsStats.start();
+        Uri uri = mNamespace == GLOBAL ? getUri()
+                : ContentProvider.maybeAddUserId(getUri(), mUserId);
+        try (Cursor cursor = resolver.query(uri, PREFETCH_PROJECTION, null, null, null)) {
+            if (cursor == null) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                String key = cursor.getString(0);
+                if (keys.contains(key)) {
+                    values.put(key, cursor.getString(1));
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Error prefetching " + NAMESPACE_NAMES[mNamespace], e);
+            return;
+        } finally {
+            SettingsStats.recordRead(NAMESPACE_NAMES[mNamespace], PREFETCH_KEY, start);
+        }
+        // Keys the provider redirects to another namespace are not in this table, leave
+        // them to be read one by one.
+        Set<String> moved = getMovedKeys();
+        synchronized (this) {
+            if (generation != mGeneration) {
+                // Something changed while querying, the snapshot may be stale.
+                return;
+            }
+            for (String key : keys) {
+                if (moved.contains(key) || mValues.containsKey(key)
+                        || mPending.containsKey(key)) {
+                    continue;
+                }
+                String value = values.get(key);
+                mValues.put(key, value != null ? value : NOT_SET);
+                mPrefetched++;
+            }
+        }
+    }
+
+    public int getInt(ContentResolver resolver, String key, int defValue) {
+        String value = getString(resolver, key);
+        try {
+            return value != null ? Integer.parseInt(value) : defValue;
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    public long getLong(ContentResolver resolver, String key, long defValue) {
+        String value = getString(resolver, key);
+        try {
+            return value != null ? Long.parseLong(value) : defValue;
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    public float getFloat(ContentResolver resolver, String key, float defValue) {
+        String value = getString(resolver, key);
+        try {
+            return value != null ? Float.parseFloat(value) : defValue;
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    /**
+     * Writes a value through to the provider. Returns false if the provider refused it.
+     */
+    public boolean putString(ContentResolver resolver, String key, String value) {
+        synchronized (mWriteLock) {
+            synchronized (this) {
+                // Supersedes a deferred write of the same key.
+                mPending.remove(key);
+            }
+            return write(resolver, key, value);
+        }
+    }
+
+    /**
+     * Writes the given values with a single bulk insert, so applying many keys costs one
+     * round-trip instead of one per key. Removals and keys the provider redirects to
+     * another namespace are written one by one. Does IPC, so call it off the main thread.
+     * Returns how many values were written.
+     */
+    public int putAll(ContentResolver resolver, Map<String, String> values) {
+        Set<String> moved = getMovedKeys();
+        List<ContentValues> rows = new ArrayList<>();
+        Map<String, String> batch = new LinkedHashMap<>();
+        int written = 0;
+        synchronized (mWriteLock) {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                if (entry.getValue() == null || moved.contains(entry.getKey())) {
+                    if (putString(resolver, entry.getKey(), entry.getValue())) {
+                        written++;
+                    }
+                    continue;
+                }
+                ContentValues row = new ContentValues(2);
+                row.put(Settings.NameValueTable.NAME, entry.getKey());
+                row.put(Settings.NameValueTable.VALUE, entry.getValue());
+                rows.add(row);
+                batch.put(entry.getKey(), entry.getValue());
+            }
+            if (rows.isEmpty()) {
+                return written;
+            }
+            synchronized (this) {
+                mPending.keySet().removeAll(batch.keySet());
+            }
+            long start = SettingsStats.start();
+            Uri uri = mNamespace == GLOBAL ? getUri()
+                    : ContentProvider.maybeAddUserId(getUri(), mUserId);
+            int inserted = 0;
+            try {
+                inserted = resolver.bulkInsert(uri, rows.toArray(new ContentValues[0]));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Error writing " + NAMESPACE_NAMES[mNamespace], e);
+            }
+            SettingsStats.recordWrite(NAMESPACE_NAMES[mNamespace], BATCH_KEY, start);
+            synchronized (this) {
+                mGeneration++;
+                mWrites += rows.size();
+                if (inserted == rows.size()) {
+                    for (Map.Entry<String, String> entry : batch.entrySet()) {
+                        mValues.put(entry.getKey(), entry.getValue());
+                    }
+                } else {
+                    // No telling which rows made it, read them back on demand.
+                    mValues.keySet().removeAll(batch.keySet());
+                }
+            }
+            return written + inserted;
+        }
+    }
+
+    /**
+     * Queues a write, coalescing it with earlier queued writes of the same key. Reads see
+     * the new value at once.
+     */
+    public void putStringDeferred(ContentResolver resolver, String key, String value) {
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                getWriteHandler().postDelayed(mFlush, WRITE_BEHIND_DELAY_MS);
+            } else if (mPending.containsKey(key)) {
+                mCoalesced++;
+            }
+            mPending.put(key, value);
+            mPendingResolver = resolver;
+        }
+    }
+
+    /**
+     * Writes out all pending writes on the calling thread.
+     */
+    public void flush() {
+        synchronized (mWriteLock) {
+            Map<String, String> pending;
+            ContentResolver resolver;
+            synchronized (this) {
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                getWriteHandler().removeCallbacks(mFlush);
+                pending = new LinkedHashMap<>(mPending);
+                resolver = mPendingResolver;
+                mPending.clear();
+                mPendingResolver = null;
+            }
+            for (Map.Entry<String, String> entry : pending.entrySet()) {
+                write(resolver, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private boolean write(ContentResolver resolver, String key, String value) {
+        long start = SettingsStats.start();
+        boolean written = writeString(resolver, key, value);
+        SettingsStats.recordWrite(NAMESPACE_NAMES[mNamespace], key, start);
+        synchronized (this) {
+            mGeneration++;
+            mWrites++;
+            if (written) {
+                mValues.put(key, value != null ? value : NOT_SET);
+            } else {
+                mValues.remove(key);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Drops the given key, or every key if it is null.
+     */
+    public synchronized void invalidate(String key) {
+        mGeneration++;
+        if (key == null) {
+            mValues.clear();
+        } else {
+            mValues.remove(key);
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Returns how many deferred writes were dropped in favour of a newer value.
+     */
+    public synchronized long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long reads = mHits + mMisses;
+        return "SettingsCache{" + NAMESPACE_NAMES[mNamespace] + "/" + mUserId
+                + ", size=" + mValues.size() + ", hits=" + mHits + ", misses=" + mMisses
+                + ", hitRate=" + (reads > 0 ? mHits * 100 / reads : 0) + "%"
+                + ", prefetched=" + mPrefetched
+                + ", writes=" + mWrites + ", coalesced=" + mCoalesced
+                + ", pending=" + mPending.size() + "}";
+    }
+
+    /**
+     * Runs the given task on the thread deferred writes are flushed on.
+     */
+    static void post(Runnable task) {
+        getWriteHandler().post(task);
+    }
+
+    private static synchronized Handler getWriteHandler() {
+        if (sWriteHandler == null) {
+            HandlerThread thread = new HandlerThread("SettingsCache",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sWriteHandler = new Handler(thread.getLooper());
+        }
+        return sWriteHandler;
+    }
+
+    private Set<String> getMovedKeys() {
+        Set<String> moved = new HashSet<>();
+        if (mNamespace == SYSTEM) {
+            Settings.System.getMovedToGlobalSettings(moved);
+            Settings.System.getMovedToSecureSettings(moved);
+        } else if (mNamespace == SECURE) {
+            Settings.Secure.getMovedToGlobalSettings(moved);
+        }
+        return moved;
+    }
+
+    private Uri getUri() {
+        switch (mNamespace) {
+            case SYSTEM:
+                return Settings.System.CONTENT_URI;
+            case SECURE:
+                return Settings.Secure.CONTENT_URI;
+            case GLOBAL:
+                return Settings.Global.CONTENT_URI;
+            case LINEAGE_SYSTEM:
+                return LineageSettings.System.CONTENT_URI;
+            default:
+                return LineageSettings.Secure.CONTENT_URI;
+        }
+    }
+
+    private String readString(ContentResolver resolver, String key) {
+        switch (mNamespace) {
+            case SYSTEM:
+                return Settings.System.getStringForUser(resolver, key, mUserId);
+            case SECURE:
+                return Settings.Secure.getStringForUser(resolver, key, mUserId);
+            case GLOBAL:
+                return Settings.Global.getString(resolver, key);
+            case LINEAGE_SYSTEM:
+                return LineageSettings.System.getStringForUser(resolver, key, mUserId);
+            default:
+                return LineageSettings.Secure.getStringForUser(resolver, key, mUserId);
+        }
+    }
+
+    private boolean writeString(ContentResolver resolver, String key, String value) {
+        switch (mNamespace) {
+            case SYSTEM:
+                return Settings.System.putStringForUser(resolver, key, value, mUserId);
+            case SECURE:
+                return Settings.Secure.putStringForUser(resolver, key, value, mUserId);
+            case GLOBAL:
+                return Settings.Global.putString(resolver, key, value);
+            case LINEAGE_SYSTEM:
+                return LineageSettings.System.putStringForUser(resolver, key, value, mUserId);
+            default:
+                return LineageSettings.Secure.putStringForUser(resolver, key, value, mUserId);
+        }
+    }
+
+    private static class FlushCallbacks
+            implements Application.ActivityLifecycleCallbacks, ComponentCallbacks2 {
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+            flushAll();
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            flushAll();
+        }
+
+        @Override
+        public void onLowMemory() {
+            flushAll();
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+        @Override
+        public void onActivityStarted(Activity activity) {}
+
+        @Override
+        public void onActivityResumed(Activity activity) {}
+
+        @Override
+        public void onActivityStopped(Activity activity) {}
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {}
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {}
+    }
+}
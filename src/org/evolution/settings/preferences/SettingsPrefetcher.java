@@ -0,0 +1,143 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.preferences;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Warms the {@link SettingsCache}s a screen reads from, with one provider query per
+ * namespace instead of one per preference.
+ *
+ * Keys are collected from the preference classes declared in the screen's XML, plus any
+ * keys the fragment reads itself. Start it when the fragment is attached. Nothing waits for
+ * it: reads that come before it finished, or that it did not cover, simply go to the
+ * provider. Lineage SDK preferences read through LineageSettings rather than the cache,
+ * so their keys are left out of screens.
+ */
+public class SettingsPrefetcher {
+
+    private static final String TAG = "SettingsPrefetcher";
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+
+    private final Context mContext;
+    private final List<Integer> mScreens = new ArrayList<>();
+    private final SparseArray<Set<String>> mKeys = new SparseArray<>();
+    private FutureTask<Void> mTask;
+
+    public SettingsPrefetcher(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Adds the keys of every settings backed preference declared in the given XML.
+     */
+    public SettingsPrefetcher addScreen(int xmlResId) {
+        mScreens.add(xmlResId);
+        return this;
+    }
+
+    /**
+     * Adds keys the fragment reads from the given {@link SettingsCache} namespace itself.
+     */
+    public SettingsPrefetcher addKeys(int namespace, String... keys) {
+        for (String key : keys) {
+            getKeys(mKeys, namespace).add(key);
+        }
+        return this;
+    }
+
+    /**
+     * Starts loading in the background. Keys and screens must be added before.
+     */
+    public SettingsPrefetcher start() {
+        if (mTask == null) {
+            mTask = new FutureTask<>(this::load, null);
+            SettingsCache.post(mTask);
+        }
+        return this;
+    }
+
+    private void load() {
+        SparseArray<Set<String>> keys = new SparseArray<>();
+        for (int i = 0; i < mKeys.size(); i++) {
+            keys.put(mKeys.keyAt(i), new HashSet<>(mKeys.valueAt(i)));
+        }
+        for (int xmlResId : mScreens) {
+            collectKeys(xmlResId, keys);
+        }
+        ContentResolver resolver = mContext.getContentResolver();
+        for (int i = 0; i < keys.size(); i++) {
+            SettingsCache.get(resolver, keys.keyAt(i)).prefetch(resolver, keys.valueAt(i));
+        }
+    }
+
+    private void collectKeys(int xmlResId, SparseArray<Set<String>> keys) {
+        try (XmlResourceParser parser = mContext.getResources().getXml(xmlResId)) {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                int namespace = getNamespace(parser.getName());
+                String key = parser.getAttributeValue(ANDROID_NS, "key");
+                if (namespace >= 0 && key != null && !isLineage(namespace)) {
+                    getKeys(keys, namespace).add(key);
+                }
+            }
+        } catch (XmlPullParserException | IOException e) {
+            Log.w(TAG, "Error parsing preference keys", e);
+        }
+    }
+
+    /**
+     * Maps a preference class to the namespace it persists to, or -1 if it is not backed
+     * by settings. Covers ours, the colour pickers and the Lineage SDK preferences.
+     */
+    static int getNamespace(String tag) {
+        String name = tag.substring(tag.lastIndexOf('.') + 1);
+        if (name.startsWith("LineageSystemSetting")) {
+            return SettingsCache.LINEAGE_SYSTEM;
+        } else if (name.startsWith("LineageSecureSetting")) {
+            return SettingsCache.LINEAGE_SECURE;
+        } else if (name.startsWith("SystemSetting")) {
+            return SettingsCache.SYSTEM;
+        } else if (name.startsWith("SecureSetting")) {
+            return SettingsCache.SECURE;
+        } else if (name.startsWith("GlobalSetting")) {
+            return SettingsCache.GLOBAL;
+        }
+        return -1;
+    }
+
+    private static boolean isLineage(int namespace) {
+        return namespace == SettingsCache.LINEAGE_SYSTEM
+                || namespace == SettingsCache.LINEAGE_SECURE;
+    }
+
+    private static Set<String> getKeys(SparseArray<Set<String>> keys, int namespace) {
+        Set<String> namespaceKeys = keys.get(namespace);
+        if (namespaceKeys == null) {
+            namespaceKeys = new HashSet<>();
+            keys.put(namespace, namespaceKeys);
+        }
+        return namespaceKeys;
+    }
+}
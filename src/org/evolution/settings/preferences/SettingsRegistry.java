@@ -0,0 +1,224 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.preferences;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+import android.util.TypedValue;
+
+import com.android.settings.R;
+
+import org.evolution.settings.preferences.colorpicker.ColorPickerPreference;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every setting, system property and overlay the Evolver screens persist to, as declared
+ * by the preference classes in their XML, along with their default values.
+ */
+public class SettingsRegistry {
+
+    private static final String TAG = "SettingsRegistry";
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+    private static final String SETTINGS_NS = "http://schemas.android.com/apk/res-auto";
+    private static final String DKEY = "dkey";
+    private static final String DKEY_NIGHT_ONLY = "dkeyNightOnly";
+
+    public static final int TYPE_SETTING = 0;
+    public static final int TYPE_SYSTEM_PROPERTY = 1;
+    public static final int TYPE_OVERLAY = 2;
+
+    /** Every Evolver preference screen. */
+    public static final int[] SCREENS = {
+        R.xml.boot_animation,
+        R.xml.edge_light_settings,
+        R.xml.evolution_settings_about,
+        R.xml.evolution_settings_buttons,
+        R.xml.evolution_settings_haptics,
+        R.xml.evolution_settings_lock_screen,
+        R.xml.evolution_settings_miscellaneous,
+        R.xml.evolution_settings_notifications,
+        R.xml.evolution_settings_power_menu,
+        R.xml.evolution_settings_quick_settings,
+        R.xml.evolution_settings_status_bar,
+        R.xml.evolution_settings_themes,
+        R.xml.evolution_settings_wallpaper,
+        R.xml.evolution_settings_wallpaper_depth,
+        R.xml.hide_applist_prefs,
+        R.xml.monet_engine,
+        R.xml.network_traffic_settings,
+        R.xml.power_menu_actions,
+        R.xml.pulse_settings,
+        R.xml.qs_header_image_settings,
+        R.xml.qs_layout_settings,
+        R.xml.smart_pixels,
+        R.xml.spoofing,
+        R.xml.status_bar_clock,
+        R.xml.status_bar_lyric_settings,
+    };
+
+    public static class Entry {
+        public final int type;
+        /** The {@link SettingsCache} namespace of settings, -1 for other types. */
+        public final int namespace;
+        public final String key;
+        /**
+         * The android:defaultValue in the form it is stored in, or null if the XML does not
+         * declare one.
+         */
+        public final String defaultValue;
+
+        Entry(int type, int namespace, String key, String defaultValue) {
+            this.type = type;
+            this.namespace = namespace;
+            this.key = key;
+            this.defaultValue = defaultValue;
+        }
+
+        /**
+         * Returns a name unique across types and namespaces.
+         */
+        public String getId() {
+            return type + "/" + namespace + "/" + key;
+        }
+    }
+
+    /**
+     * Returns the entries of every screen, each key once.
+     */
+    public static List<Entry> getAll(Context context) {
+        return getAll(context, SCREENS);
+    }
+
+    /**
+     * Returns the entries of the given screens, each key once.
+     */
+    public static List<Entry> getAll(Context context, int... screens) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (int screen : screens) {
+            for (Entry entry : parse(context, screen)) {
+                entries.putIfAbsent(entry.getId(), entry);
+            }
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Returns the entries declared by one screen, in declaration order.
+     */
+    public static List<Entry> parse(Context context, int xmlResId) {
+        List<Entry> entries = new ArrayList<>();
+        try (XmlResourceParser parser = context.getResources().getXml(xmlResId)) {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                String key = parser.getAttributeValue(ANDROID_NS, "key");
+                if (key == null) {
+                    continue;
+                }
+                String name = parser.getName();
+                int namespace = SettingsPrefetcher.getNamespace(name);
+                name = name.substring(name.lastIndexOf('.') + 1);
+                String defaultValue = getDefaultValue(context.getResources(), parser);
+                if (namespace >= 0) {
+                    entries.add(new Entry(TYPE_SETTING, namespace, key,
+                            toSettingValue(defaultValue)));
+                } else if (name.startsWith("SystemProperty")) {
+                    entries.add(new Entry(TYPE_SYSTEM_PROPERTY, -1, key, defaultValue));
+                } else if (name.equals("OverlaySwitchPreference")) {
+                    entries.add(new Entry(TYPE_OVERLAY, -1, key, defaultValue));
+                    // The overlay switched the other way round is part of the state too.
+                    String disableKey = parser.getAttributeValue(SETTINGS_NS, DKEY);
+                    if (disableKey != null && !disableKey.isEmpty()) {
+                        // Night only ones depend on the time of day, leave them be on reset.
+                        boolean nightOnly = parser.getAttributeBooleanValue(SETTINGS_NS,
+                                DKEY_NIGHT_ONLY, false);
+                        String disableDefault = defaultValue == null || nightOnly ? null
+                                : Boolean.toString(!Boolean.parseBoolean(defaultValue));
+                        entries.add(new Entry(TYPE_OVERLAY, -1, disableKey, disableDefault));
+                    }
+                }
+            }
+        } catch (XmlPullParserException | IOException e) {
+            Log.w(TAG, "Error parsing preference keys", e);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the title of a screen, or null if it has none.
+     */
+    public static CharSequence getTitle(Context context, int xmlResId) {
+        try (XmlResourceParser parser = context.getResources().getXml(xmlResId)) {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.START_TAG
+                    && type != XmlPullParser.END_DOCUMENT) {
+                // Skip to the root tag.
+            }
+            if (type != XmlPullParser.START_TAG) {
+                return null;
+            }
+            int titleRes = parser.getAttributeResourceValue(ANDROID_NS, "title", 0);
+            return titleRes != 0 ? context.getText(titleRes)
+                    : parser.getAttributeValue(ANDROID_NS, "title");
+        } catch (XmlPullParserException | IOException e) {
+            Log.w(TAG, "Error parsing screen title", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the default value of the current tag as a string, resolving references.
+     */
+    private static String getDefaultValue(Resources res, XmlResourceParser parser) {
+        int resId = parser.getAttributeResourceValue(ANDROID_NS, "defaultValue", 0);
+        if (resId == 0) {
+            return parser.getAttributeValue(ANDROID_NS, "defaultValue");
+        }
+        try {
+            TypedValue value = new TypedValue();
+            res.getValue(resId, value, true);
+            CharSequence string = value.coerceToString();
+            return string != null ? string.toString() : null;
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Converts a default value to the form preferences persist it in settings: switches
+     * as 1 or 0 and colour pickers as a decimal int.
+     */
+    private static String toSettingValue(String value) {
+        if (value == null) {
+            return null;
+        } else if (value.equals("true") || value.equals("false")) {
+            return Boolean.parseBoolean(value) ? "1" : "0";
+        }
+        try {
+            if (value.startsWith("#")) {
+                return Integer.toString(ColorPickerPreference.convertToColorInt(value));
+            } else if (value.startsWith("0x") || value.startsWith("0X")) {
+                return Integer.toString((int) Long.parseLong(value.substring(2), 16));
+            }
+        } catch (NumberFormatException e) {
+            // Not a colour after all, keep it as is.
+        }
+        return value;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.preferences;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the settings provider and system property round-trips made per key, with a
+ * latency histogram for reads and writes each.
+ *
+ * Recording is a map lookup and a few increments under a lock, next to an IPC that takes
+ * far longer, so it is always on. Histogram buckets are powers of two in microseconds.
+ * {@link #dump} prints the keys with the most round-trips first.
+ */
+public class SettingsStats {
+
+    public static final String SYSTEM_PROPERTIES = "sysprop";
+
+    private static final int BUCKET_COUNT = 16;
+    private static final int MAX_KEYS = 1024;
+    private static final String OTHER_KEYS = "<other>";
+
+    private static final Map<String, KeyStats> sStats = new HashMap<>();
+
+    private static class KeyStats {
+        final String name;
+        final long[] readBuckets = new long[BUCKET_COUNT];
+        final long[] writeBuckets = new long[BUCKET_COUNT];
+        long reads;
+        long writes;
+        long readNanos;
+        long writeNanos;
+
+        KeyStats(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Returns a start time for {@link #recordRead} and {@link #recordWrite}.
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    public static void recordRead(String namespace, String key, long startNanos) {
+        long elapsed = SystemClock.elapsedRealtimeNanos() - startNanos;
+        synchronized (sStats) {
+            KeyStats stats = getStats(namespace, key);
+            stats.reads++;
+            stats.readNanos += elapsed;
+            stats.readBuckets[getBucket(elapsed)]++;
+        }
+    }
+
+    public static void recordWrite(String namespace, String key, long startNanos) {
+        long elapsed = SystemClock.elapsedRealtimeNanos() - startNanos;
+        synchronized (sStats) {
+            KeyStats stats = getStats(namespace, key);
+            stats.writes++;
+            stats.writeNanos += elapsed;
+            stats.writeBuckets[getBucket(elapsed)]++;
+        }
+    }
+
+    public static void reset() {
+        synchronized (sStats) {
+            sStats.clear();
+        }
+    }
+
+    public static void dump(PrintWriter writer) {
+        List<KeyStats> stats;
+        synchronized (sStats) {
+            stats = new ArrayList<>(sStats.size());
+            for (KeyStats keyStats : sStats.values()) {
+                KeyStats copy = new KeyStats(keyStats.name);
+                copy.reads = keyStats.reads;
+                copy.writes = keyStats.writes;
+                copy.readNanos = keyStats.readNanos;
+                copy.writeNanos = keyStats.writeNanos;
+                System.arraycopy(keyStats.readBuckets, 0, copy.readBuckets, 0, BUCKET_COUNT);
+                System.arraycopy(keyStats.writeBuckets, 0, copy.writeBuckets, 0,
+                        BUCKET_COUNT);
+                stats.add(copy);
+            }
+        }
+        stats.sort((a, b) -> Long.compare(b.reads + b.writes, a.reads + a.writes));
+        long reads = 0;
+        long writes = 0;
+        for (KeyStats keyStats : stats) {
+            reads += keyStats.reads;
+            writes += keyStats.writes;
+        }
+        writer.println("Settings round-trips: " + reads + " reads, " + writes + " writes, "
+                + stats.size() + " keys");
+        for (KeyStats keyStats : stats) {
+            StringBuilder line = new StringBuilder("  ").append(keyStats.name);
+            appendLatency(line, " reads", keyStats.reads, keyStats.readNanos,
+                    keyStats.readBuckets);
+            appendLatency(line, " writes", keyStats.writes, keyStats.writeNanos,
+                    keyStats.writeBuckets);
+            writer.println(line);
+        }
+    }
+
+    private static void appendLatency(StringBuilder line, String label, long count,
+            long nanos, long[] buckets) {
+        if (count == 0) {
+            return;
+        }
+        line.append(label).append('=').append(count)
+                .append(" avg=").append(nanos / count / 1000).append("us")
+                .append(" p50<").append(getPercentileMicros(buckets, count, 50)).append("us")
+                .append(" p99<").append(getPercentileMicros(buckets, count, 99)).append("us")
+                .append(" [");
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            line.append(i > 0 ? " " : "").append(buckets[i]);
+        }
+        line.append(']');
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile.
+     */
+    private static long getPercentileMicros(long[] buckets, long count, int percentile) {
+        long target = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= target) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << BUCKET_COUNT;
+    }
+
+    private static int getBucket(long nanos) {
+        long micros = Math.max(nanos / 1000, 1);
+        return Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+
+    private static KeyStats getStats(String namespace, String key) {
+        String name = namespace + "/" + key;
+        KeyStats stats = sStats.get(name);
+        if (stats == null) {
+            if (sStats.size() >= MAX_KEYS) {
+                // Keep memory bounded should something read arbitrary keys.
+                name = namespace + "/" + OTHER_KEYS;
+                stats = sStats.get(name);
+            }
+            if (stats == null) {
+                stats = new KeyStats(name);
+                sStats.put(name, stats);
+            }
+        }
+        return stats;
+    }
+}
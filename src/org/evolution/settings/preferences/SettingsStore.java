@@ -0,0 +1,86 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.preferences;
+
+import android.content.ContentResolver;
+import android.preference.PreferenceDataStore;
+
+/**
+ * Preference data store backed by one settings namespace, reading through the namespace's
+ * shared {@link SettingsCache}.
+ */
+public abstract class SettingsStore extends androidx.preference.PreferenceDataStore
+        implements PreferenceDataStore {
+
+    private final ContentResolver mContentResolver;
+    private final SettingsCache mCache;
+    private boolean mWriteBehind;
+
+    protected SettingsStore(ContentResolver contentResolver, int namespace) {
+        mContentResolver = contentResolver;
+        mCache = SettingsCache.get(contentResolver, namespace);
+    }
+
+    public SettingsCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * While enabled, writes are coalesced per key and written behind. Disabling it flushes
+     * what is still pending.
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        mWriteBehind = writeBehind;
+        if (!writeBehind) {
+            mCache.flush();
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        return getInt(key, defValue ? 1 : 0) != 0;
+    }
+
+    public float getFloat(String key, float defValue) {
+        return mCache.getFloat(mContentResolver, key, defValue);
+    }
+
+    public int getInt(String key, int defValue) {
+        return mCache.getInt(mContentResolver, key, defValue);
+    }
+
+    public long getLong(String key, long defValue) {
+        return mCache.getLong(mContentResolver, key, defValue);
+    }
+
+    public String getString(String key, String defValue) {
+        String result = mCache.getString(mContentResolver, key);
+        return result == null ? defValue : result;
+    }
+
+    public void putBoolean(String key, boolean value) {
+        putInt(key, value ? 1 : 0);
+    }
+
+    public void putFloat(String key, float value) {
+        putString(key, Float.toString(value));
+    }
+
+    public void putInt(String key, int value) {
+        putString(key, Integer.toString(value));
+    }
+
+    public void putLong(String key, long value) {
+        putString(key, Long.toString(value));
+    }
+
+    public void putString(String key, String value) {
+        if (mWriteBehind) {
+            mCache.putStringDeferred(mContentResolver, key, value);
+        } else {
+            mCache.putString(mContentResolver, key, value);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.preferences;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemProperties;
+
+import com.android.settingslib.development.SystemPropPoker;
+
+import java.io.PrintWriter;
+
+/**
+ * Sets system properties with one {@link SystemPropPoker} poke per batch of writes.
+ *
+ * A poke makes every running process reload its properties, so it costs far more than the
+ * sets before it. Properties are set right away, reads see them at once, but the poke is
+ * posted to the main thread: everything set while handling one click or preference
+ * change shares a single poke. Writers on other threads can hold the poke across a longer
+ * run of sets with {@link #beginBatch} and {@link #endBatch}, which also block the pokes
+ * of other SystemPropPoker users meanwhile.
+ *
+ * Only writers that poked after every set go through here, so the saved count compares
+ * against what they used to cost. Writers that never poked keep using SystemProperties.
+ */
+public class SystemPropertyBatcher {
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable sPoke = SystemPropertyBatcher::flush;
+
+    private static final Object sLock = new Object();
+    private static boolean sBatching;
+    private static boolean sPokePending;
+    private static long sSets;
+    private static long sPokes;
+
+    /**
+     * Sets a property now and schedules the poke announcing it.
+     */
+    public static void set(String key, String value) {
+        long start = SettingsStats.start();
+        SystemProperties.set(key, value);
+        SettingsStats.recordWrite(SettingsStats.SYSTEM_PROPERTIES, key, start);
+        synchronized (sLock) {
+            sSets++;
+            if (!sPokePending) {
+                sPokePending = true;
+                if (!sBatching) {
+                    sHandler.post(sPoke);
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds back pokes until {@link #endBatch}. Batches do not nest.
+     */
+    public static void beginBatch() {
+        synchronized (sLock) {
+            sBatching = true;
+        }
+        SystemPropPoker.getInstance().blockPokes();
+    }
+
+    /**
+     * Ends a batch, poking once if anything was set during it.
+     */
+    public static void endBatch() {
+        synchronized (sLock) {
+            if (!sBatching) {
+                return;
+            }
+            sBatching = false;
+        }
+        SystemPropPoker.getInstance().unblockPokes();
+        flush();
+    }
+
+    /**
+     * Pokes now if any property was set since the last poke, unless a batch is open.
+     */
+    public static void flush() {
+        synchronized (sLock) {
+            if (!sPokePending || sBatching) {
+                return;
+            }
+            sPokePending = false;
+            sPokes++;
+            sHandler.removeCallbacks(sPoke);
+        }
+        SystemPropPoker.getInstance().poke();
+    }
+
+    public static long getSetCount() {
+        synchronized (sLock) {
+            return sSets;
+        }
+    }
+
+    public static long getPokeCount() {
+        synchronized (sLock) {
+            return sPokes;
+        }
+    }
+
+    /**
+     * Returns how many pokes poking after every set would have added.
+     */
+    public static long getSavedPokeCount() {
+        synchronized (sLock) {
+            return sSets - sPokes - (sPokePending ? 1 : 0);
+        }
+    }
+
+    public static void dump(PrintWriter writer) {
+        synchronized (sLock) {
+            writer.println("System property pokes: " + sSets + " sets, " + sPokes + " pokes, "
+                    + getSavedPokeCount() + " saved"
+                    + (sPokePending ? ", 1 pending" : ""));
+        }
+    }
+}
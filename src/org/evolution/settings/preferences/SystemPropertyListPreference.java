@@ -20,8 +20,6 @@ import android.content.Context;
 import android.os.SystemProperties;
 import android.util.AttributeSet;
 
-import com.android.settingslib.development.SystemPropPoker;
-
 import lineageos.preference.SelfRemovingListPreference;
 
 public class SystemPropertyListPreference extends SelfRemovingListPreference {
@@ -45,12 +43,14 @@ public class SystemPropertyListPreference extends SelfRemovingListPreference {
 
     @Override
     protected void putString(String key, String value) {
-        SystemProperties.set(key, value);
-        SystemPropPoker.getInstance().poke();
+        SystemPropertyBatcher.set(key, value);
     }
 
     @Override
     protected String getString(String key, String defaultValue) {
-        return SystemProperties.get(key, defaultValue);
+        long start = SettingsStats.start();
+        String value = SystemProperties.get(key, defaultValue);
+        SettingsStats.recordRead(SettingsStats.SYSTEM_PROPERTIES, key, start);
+        return value;
     }
 }
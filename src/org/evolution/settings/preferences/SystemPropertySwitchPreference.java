@@ -9,8 +9,6 @@ import android.content.Context;
 import android.os.SystemProperties;
 import android.util.AttributeSet;
 
-import com.android.settingslib.development.SystemPropPoker;
-
 import lineageos.preference.SelfRemovingSwitchPreference;
 
 public class SystemPropertySwitchPreference extends SelfRemovingSwitchPreference {
@@ -34,12 +32,14 @@ public class SystemPropertySwitchPreference extends SelfRemovingSwitchPreference
 
     @Override
     protected void putBoolean(String key, boolean value) {
-        SystemProperties.set(key, Boolean.toString(value));
-        SystemPropPoker.getInstance().poke();
+        SystemPropertyBatcher.set(key, Boolean.toString(value));
     }
 
     @Override
     protected boolean getBoolean(String key, boolean defaultValue) {
-        return SystemProperties.getBoolean(key, defaultValue);
+        long start = SettingsStats.start();
+        boolean value = SystemProperties.getBoolean(key, defaultValue);
+        SettingsStats.recordRead(SettingsStats.SYSTEM_PROPERTIES, key, start);
+        return value;
     }
 }
@@ -6,14 +6,14 @@
 package org.evolution.settings.preferences;
 
 import android.content.Context;
-import android.provider.Settings;
-import android.os.UserHandle;
 import android.util.AttributeSet;
 
 import lineageos.preference.SelfRemovingSwitchPreference;
 
 public class SystemSettingSwitchPreference extends SelfRemovingSwitchPreference {
 
+    private SystemSettingsStore mStore;
+
     public SystemSettingSwitchPreference(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
     }
@@ -28,17 +28,23 @@ public class SystemSettingSwitchPreference extends SelfRemovingSwitchPreference
 
     @Override
     protected boolean isPersisted() {
-        return Settings.System.getString(getContext().getContentResolver(), getKey()) != null;
+        return getStore().getString(getKey(), null) != null;
     }
 
     @Override
     protected void putBoolean(String key, boolean value) {
-        Settings.System.putIntForUser(getContext().getContentResolver(), key, value ? 1 : 0, UserHandle.USER_CURRENT);
+        getStore().putBoolean(key, value);
     }
 
     @Override
     protected boolean getBoolean(String key, boolean defaultValue) {
-        return Settings.System.getIntForUser(getContext().getContentResolver(),
-                key, defaultValue ? 1 : 0, UserHandle.USER_CURRENT) != 0;
+        return getStore().getBoolean(key, defaultValue);
+    }
+
+    private SystemSettingsStore getStore() {
+        if (mStore == null) {
+            mStore = new SystemSettingsStore(getContext().getContentResolver());
+        }
+        return mStore;
     }
 }
@@ -0,0 +1,294 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.AnimationDrawable;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps animation previews within a share of the app heap.
+ *
+ * Boot animations are planned up front from their frame headers: the decode window, pixel
+ * format of each part (RGB_565 when all of its frames are opaque, ALPHA_8 when they are
+ * all grayscale masks) and sample size are chosen so the frames held at once fit the budget, giving up buffered frames first and
+ * resolution second. Other users size their bitmaps with {@link #getSampleSize} and
+ * account them with {@link #tryAcquire} and {@link #release}.
+ */
+public class BitmapMemoryGovernor {
+
+    private static final String TAG = "BitmapMemoryGovernor";
+
+    public static final int DEFAULT_BUDGET_PERCENT = 10;
+
+    private static final int MAX_SAMPLE_SIZE = 16;
+    /** Frames held besides the decode window: the shown one and the one before it. */
+    private static final int SHOWN_FRAME_COUNT = 2;
+
+    /**
+     * How a boot animation should be decoded to stay within the budget.
+     */
+    public static class Plan {
+        public final int targetWidth;
+        public final int targetHeight;
+        /** Widest pixel format of any part, which frames are sized with. */
+        public final Bitmap.Config config;
+        public final int windowSize;
+        /** Estimated size of one decoded frame. */
+        public final long frameBytes;
+        /** What is left of the budget for pooled bitmaps. */
+        public final long poolBytes;
+        private final Map<String, Bitmap.Config> mPartConfigs;
+
+        Plan(int targetWidth, int targetHeight, Bitmap.Config config, int windowSize,
+                long frameBytes, long poolBytes) {
+            this(targetWidth, targetHeight, config, windowSize, frameBytes, poolBytes,
+                    Collections.emptyMap());
+        }
+
+        Plan(int targetWidth, int targetHeight, Bitmap.Config config, int windowSize,
+                long frameBytes, long poolBytes, Map<String, Bitmap.Config> partConfigs) {
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            this.config = config;
+            this.windowSize = windowSize;
+            this.frameBytes = frameBytes;
+            this.poolBytes = poolBytes;
+            mPartConfigs = partConfigs;
+        }
+
+        /**
+         * Returns the pixel format to decode the given frame with: the widest one any
+         * frame of its part needs.
+         */
+        public Bitmap.Config getConfig(BootAnimationUtils.Frame frame) {
+            Bitmap.Config config = mPartConfigs.get(getPart(frame));
+            return config != null ? config : this.config;
+        }
+
+        @Override
+        public String toString() {
+            return "Plan{target=" + targetWidth + "x" + targetHeight + ", config=" + config
+                    + ", parts=" + mPartConfigs + ", window=" + windowSize + ", frameBytes=" + frameBytes
+                    + ", poolBytes=" + poolBytes + "}";
+        }
+    }
+
+    private final long mBudget;
+    private long mLiveBytes;
+    private long mPeakBytes;
+
+    public BitmapMemoryGovernor(long budget) {
+        mBudget = budget;
+    }
+
+    /**
+     * Returns a governor allowed {@link #DEFAULT_BUDGET_PERCENT} of the app's memory class.
+     */
+    public static BitmapMemoryGovernor create(Context context) {
+        return create(context, DEFAULT_BUDGET_PERCENT);
+    }
+
+    public static BitmapMemoryGovernor create(Context context, int percent) {
+        ActivityManager am = context.getSystemService(ActivityManager.class);
+        long memoryClass = (long) am.getMemoryClass() * 1024 * 1024;
+        return new BitmapMemoryGovernor(memoryClass * percent / 100);
+    }
+
+    public long getBudget() {
+        return mBudget;
+    }
+
+    public synchronized long getLiveBytes() {
+        return mLiveBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return mPeakBytes;
+    }
+
+    /**
+     * Accounts the given bytes if they fit the budget. Returns false and accounts nothing
+     * otherwise.
+     */
+    public synchronized boolean tryAcquire(long bytes) {
+        if (mLiveBytes + bytes > mBudget) {
+            return false;
+        }
+        mLiveBytes += bytes;
+        mPeakBytes = Math.max(mPeakBytes, mLiveBytes);
+        return true;
+    }
+
+    public synchronized void release(long bytes) {
+        mLiveBytes = Math.max(mLiveBytes - bytes, 0);
+    }
+
+    public synchronized long getAvailableBytes() {
+        return Math.max(mBudget - mLiveBytes, 0);
+    }
+
+    /**
+     * Returns the smallest power of two sample size, up to the largest one boot animations
+     * are planned with, that fits bitmaps of the given full size into what is left of the
+     * budget.
+     */
+    public synchronized int getSampleSize(long bytes) {
+        int sampleSize = 1;
+        while (bytes / ((long) sampleSize * sampleSize) > mBudget - mLiveBytes
+                && sampleSize < MAX_SAMPLE_SIZE) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Records a live byte count measured by the caller, for peak tracking.
+     */
+    public synchronized void update(long liveBytes) {
+        mLiveBytes = liveBytes;
+        mPeakBytes = Math.max(mPeakBytes, liveBytes);
+    }
+
+    /**
+     * Plans the decoding of the given playlist. The window is shrunk down to minWindow
+     * before the resolution is lowered below the requested size.
+     */
+    public Plan planBootAnimation(BootAnimationIndex index,
+            List<BootAnimationUtils.Frame> playlist, int reqWidth, int reqHeight,
+            int minWindow, int maxWindow) {
+        int width = 0;
+        int height = 0;
+        Bitmap.Config config = Bitmap.Config.ALPHA_8;
+        Map<String, Bitmap.Config> partConfigs = new HashMap<>();
+        Set<String> entries = new HashSet<>();
+        for (BootAnimationUtils.Frame frame : playlist) {
+            if (!entries.add(frame.entry.getName())) {
+                // Looping parts repeat their frames.
+                continue;
+            }
+            // Every frame is sniffed, so one frame with alpha only widens its own part.
+            String part = getPart(frame);
+            Bitmap.Config frameConfig = BootAnimationUtils.getFrameConfig(
+                    index.getZipFile(), frame.entry);
+            Bitmap.Config partConfig = partConfigs.get(part);
+            if (partConfig == null || BitmapPool.getBytesPerPixel(frameConfig)
+                    > BitmapPool.getBytesPerPixel(partConfig)) {
+                partConfigs.put(part, frameConfig);
+            }
+            if (BitmapPool.getBytesPerPixel(frameConfig) > BitmapPool.getBytesPerPixel(config)) {
+                config = frameConfig;
+            }
+            if (partConfig != null) {
+                // Frames of a part share their size, the first one stands for all of them.
+                continue;
+            }
+            BitmapFactory.Options options = readBounds(index, frame);
+            if (options == null) {
+                continue;
+            }
+            int frameWidth = options.outWidth;
+            int frameHeight = options.outHeight;
+            if (frame.isPlaced(frameWidth, frameHeight)) {
+                // Trimmed frames are drawn onto a canvas of the animation size.
+                frameWidth = frame.canvasWidth;
+                frameHeight = frame.canvasHeight;
+            } else if (frame.trim != null && (frame.trim.width() != frameWidth
+                    || frame.trim.height() != frameHeight)) {
+                frameWidth = Math.min(frame.trim.width(), frameWidth);
+                frameHeight = Math.min(frame.trim.height(), frameHeight);
+            }
+            width = Math.max(width, frameWidth);
+            height = Math.max(height, frameHeight);
+        }
+        if (width <= 0 || height <= 0) {
+            return new Plan(reqWidth, reqHeight, Bitmap.Config.ARGB_8888, maxWindow, 0,
+                    mBudget);
+        }
+
+        int sampleSize = BootAnimationUtils.calculateInSampleSize(width, height,
+                reqWidth, reqHeight);
+        int window = maxWindow;
+        // Frames are sized at the widest format, the budget has to hold for any part.
+        long frameBytes = getByteCount(width, height, sampleSize, config);
+        while ((window + SHOWN_FRAME_COUNT) * frameBytes > mBudget) {
+            if (window > minWindow) {
+                window--;
+            } else if (sampleSize < MAX_SAMPLE_SIZE) {
+                sampleSize *= 2;
+                frameBytes = getByteCount(width, height, sampleSize, config);
+            } else {
+                break;
+            }
+        }
+        long resident = (window + SHOWN_FRAME_COUNT) * frameBytes;
+        // A target of size / sampleSize makes the decoder pick exactly this sample size.
+        Plan plan = new Plan(Math.max(width / sampleSize, 1), Math.max(height / sampleSize, 1),
+                config, window, frameBytes, Math.max(mBudget - resident, 0), partConfigs);
+        if (resident > mBudget) {
+            Log.w(TAG, "Boot animation exceeds the budget of " + mBudget + " bytes: " + plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the bitmap bytes held by a drawable, counting every frame of an animation.
+     */
+    public static long getByteCount(Drawable drawable) {
+        if (drawable instanceof AnimationDrawable) {
+            AnimationDrawable animation = (AnimationDrawable) drawable;
+            long bytes = 0;
+            for (int i = 0; i < animation.getNumberOfFrames(); i++) {
+                bytes += getByteCount(animation.getFrame(i));
+            }
+            return bytes;
+        }
+        if (drawable instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            return bitmap != null ? bitmap.getAllocationByteCount() : 0;
+        }
+        return 0;
+    }
+
+    private static long getByteCount(int width, int height, int sampleSize,
+            Bitmap.Config config) {
+        long sampledWidth = (width + sampleSize - 1) / sampleSize;
+        long sampledHeight = (height + sampleSize - 1) / sampleSize;
+        return sampledWidth * sampledHeight * BitmapPool.getBytesPerPixel(config);
+    }
+
+    private static String getPart(BootAnimationUtils.Frame frame) {
+        String name = frame.entry.getName();
+        return name.substring(0, Math.max(name.lastIndexOf('/'), 0));
+    }
+
+    private static BitmapFactory.Options readBounds(BootAnimationIndex index,
+            BootAnimationUtils.Frame frame) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream is = index.getZipFile().getInputStream(frame.entry)) {
+            BitmapFactory.decodeStream(is, null, options);
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading bounds of " + frame.entry.getName(), e);
+            return null;
+        }
+        return options.outWidth > 0 && options.outHeight > 0 ? options : null;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.SparseArray;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of mutable bitmaps that decoders can reuse through
+ * {@link BitmapFactory.Options#inBitmap}.
+ *
+ * Bitmaps are bucketed by the power of two at or below their allocation size, so any
+ * bitmap taken from the bucket at or above a requested size is large enough to decode
+ * into. Once the pool holds more than its byte limit, the largest bitmaps are recycled.
+ */
+public class BitmapPool {
+
+    private long mMaxBytes;
+    private final SparseArray<ArrayDeque<Bitmap>> mBuckets = new SparseArray<>();
+    private long mBytes;
+    private int mHits;
+    private int mMisses;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a bitmap whose allocation can hold a width x height bitmap of the given
+     * config, or null if the pool has none.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long required = (long) width * height * getBytesPerPixel(config);
+        if (required <= 0 || required > Integer.MAX_VALUE) {
+            mMisses++;
+            return null;
+        }
+        int bucket = getBucket(required);
+        if ((1L << bucket) < required) {
+            bucket++;
+        }
+        // Only look one bucket up so small requests do not take much larger bitmaps.
+        for (int i = bucket; i <= bucket + 1; i++) {
+            ArrayDeque<Bitmap> bitmaps = mBuckets.get(i);
+            if (bitmaps != null && !bitmaps.isEmpty()) {
+                Bitmap bitmap = bitmaps.poll();
+                mBytes -= bitmap.getAllocationByteCount();
+                mHits++;
+                return bitmap;
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    /**
+     * Hands a bitmap back to the pool. Bitmaps that cannot be reused are recycled.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getConfig() == Bitmap.Config.HARDWARE
+                || bitmap.getAllocationByteCount() > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        int bucket = getBucket(bitmap.getAllocationByteCount());
+        ArrayDeque<Bitmap> bitmaps = mBuckets.get(bucket);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            mBuckets.put(bucket, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        mBytes += bitmap.getAllocationByteCount();
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Changes the byte limit, recycling the largest bitmaps if the pool holds more.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Recycles every pooled bitmap.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{hits=" + mHits + ", misses=" + mMisses
+                + ", bytes=" + mBytes + "/" + mMaxBytes + "}";
+    }
+
+    private void trimToSize(long maxBytes) {
+        for (int i = mBuckets.size() - 1; i >= 0 && mBytes > maxBytes; i--) {
+            ArrayDeque<Bitmap> bitmaps = mBuckets.valueAt(i);
+            while (!bitmaps.isEmpty() && mBytes > maxBytes) {
+                Bitmap bitmap = bitmaps.poll();
+                mBytes -= bitmap.getAllocationByteCount();
+                bitmap.recycle();
+            }
+        }
+    }
+
+    private static int getBucket(long bytes) {
+        return 63 - Long.numberOfLeadingZeros(bytes);
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.RGBA_F16) {
+            return 8;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Debug only benchmark of the boot animation preview and install paths.
+ *
+ * Generates synthetic zips at several resolutions, frame counts and compression methods in
+ * the cache dir, then times indexing, desc.txt parsing, playlist and trim loading, memory
+ * planning, frame decoding and the install copy for each of them. Decoding and copying go
+ * through the same code as {@link BootAnimationPlayer} and {@link BootAnimationInstaller}. Results, including allocated bytes and
+ * peak heap, are logged under {@link #TAG}. Runs on debuggable builds when the Boot
+ * animation screen is opened after
+ * {@code adb shell setprop debug.evolver.bootanim_benchmark 1}.
+ */
+public class BootAnimationBenchmark {
+
+    private static final String TAG = "BootAnimationBenchmark";
+
+    private static final String PROPERTY = "debug.evolver.bootanim_benchmark";
+    private static final String BENCHMARK_DIR = "bootanimation_benchmark";
+
+    private static final int[] SIZES = { 540, 1080, 1440 };
+    private static final int[] FRAME_COUNTS = { 30, 120 };
+    private static final int[] METHODS = { ZipEntry.STORED, ZipEntry.DEFLATED };
+    private static final int FPS = 30;
+    private static final int PREVIEW_SIZE = 540;
+
+    private static boolean sRunning;
+
+    public static boolean isEnabled() {
+        return Build.IS_DEBUGGABLE && SystemProperties.getBoolean(PROPERTY, false);
+    }
+
+    /**
+     * Runs every case on a background thread, unless a run is already going.
+     */
+    public static synchronized void start(Context context) {
+        if (sRunning) {
+            return;
+        }
+        sRunning = true;
+        final Context appContext = context.getApplicationContext();
+        new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                run(appContext);
+            } finally {
+                synchronized (BootAnimationBenchmark.class) {
+                    sRunning = false;
+                }
+            }
+        }, TAG).start();
+    }
+
+    private static void run(Context context) {
+        File dir = new File(context.getCacheDir(), BENCHMARK_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "Failed to create " + dir);
+            return;
+        }
+        BitmapMemoryGovernor governor = BitmapMemoryGovernor.create(context);
+        Log.i(TAG, "Starting, " + BootAnimationUtils.getDecodeThreadCount()
+                + " decode threads, budget " + governor.getBudget() + " bytes");
+        for (int size : SIZES) {
+            for (int frameCount : FRAME_COUNTS) {
+                for (int method : METHODS) {
+                    File zip = new File(dir, size + "_" + frameCount + "_" + method + ".zip");
+                    try {
+                        writeSyntheticZip(zip, size, frameCount, method);
+                        Log.i(TAG, runCase(governor, zip, size, frameCount, method));
+                    } catch (IOException | RuntimeException e) {
+                        Log.e(TAG, "Error benchmarking " + zip.getName(), e);
+                    } finally {
+                        zip.delete();
+                    }
+                }
+            }
+        }
+        dir.delete();
+        Log.i(TAG, "Done");
+    }
+
+    private static String runCase(BitmapMemoryGovernor governor, File zip, int size,
+            int frameCount, int method) throws IOException {
+        Stats stats = new Stats();
+        StringBuilder result = new StringBuilder();
+        result.append(size).append('x').append(size).append(' ').append(frameCount)
+                .append(method == ZipEntry.STORED ? " stored" : " deflated")
+                .append(' ').append(zip.length() / 1024).append(" KB:");
+
+        stats.begin();
+        BootAnimationIndex index = BootAnimationIndex.build(new ZipFile(zip));
+        result.append(" index ").append(stats.end()).append(" ms");
+        try {
+            stats.begin();
+            BootAnimationDescriptor.load(index.getZipFile(), index.getDescEntry());
+            result.append(", desc ").append(stats.end()).append(" ms");
+
+            stats.begin();
+            List<BootAnimationUtils.Frame> frames =
+                    BootAnimationUtils.getBootAnimationFrameList(index);
+            result.append(", playlist+trim ").append(stats.end()).append(" ms");
+
+            stats.begin();
+            BitmapMemoryGovernor.Plan plan = BootAnimationPlayer.plan(governor, index, frames,
+                    PREVIEW_SIZE, PREVIEW_SIZE);
+            result.append(", plan ").append(stats.end()).append(" ms ").append(plan);
+
+            BitmapPool pool = new BitmapPool(
+                    Math.min(plan.poolBytes, BootAnimationPlayer.MAX_POOL_BYTES));
+            int decoded = 0;
+            stats.begin();
+            for (int i = 0; i < frames.size() && decoded < frameCount; i++, decoded++) {
+                Bitmap bitmap = BootAnimationPlayer.decodeFrame(index.getZipFile(),
+                        frames.get(i), plan, pool);
+                stats.sample();
+                pool.put(bitmap);
+            }
+            long decodeTime = stats.endNanos();
+            pool.clear();
+            result.append(String.format(", decode %.2f ms/frame",
+                    decoded > 0 ? decodeTime / 1e6 / decoded : 0.0));
+        } finally {
+            index.close();
+        }
+
+        File copy = new File(zip.getPath() + ".copy");
+        stats.begin();
+        try (FileInputStream in = new FileInputStream(zip)) {
+            BootAnimationInstaller.copy(in.getChannel(), zip.length(), copy);
+        }
+        BootAnimationInstaller.isValidBootAnimation(copy);
+        result.append(", install copy ").append(stats.end()).append(" ms");
+        copy.delete();
+
+        result.append(", allocated ").append(stats.getAllocatedBytes() / 1024).append(" KB")
+                .append(", peak heap ").append(stats.getPeakHeap() / 1024).append(" KB");
+        return result.toString();
+    }
+
+    /**
+     * Writes a two part animation whose frames are a moving circle on a transparent
+     * canvas, with a trim.txt for the second part.
+     */
+    private static void writeSyntheticZip(File zip, int size, int frameCount, int method)
+            throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        int introFrames = frameCount / 2;
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            putEntry(out, BootAnimationDescriptor.DESC_FILE, (size + " " + size + " " + FPS
+                    + "\np 1 0 part0\np 0 0 part1\n").getBytes(StandardCharsets.UTF_8),
+                    method);
+            StringBuilder trim = new StringBuilder();
+            for (int i = 0; i < frameCount; i++) {
+                boolean intro = i < introFrames;
+                float progress = (float) i / frameCount;
+                canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                paint.setColor(Color.HSVToColor(new float[] { progress * 360, 0.8f, 1 }));
+                canvas.drawCircle(size * (0.25f + progress / 2), size / 2f, size / 6f, paint);
+                ByteArrayOutputStream png = new ByteArrayOutputStream();
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, png);
+                String name = String.format("%s/%05d.png", intro ? "part0" : "part1",
+                        intro ? i : i - introFrames);
+                putEntry(out, name, png.toByteArray(), method);
+                if (!intro) {
+                    trim.append(size).append('x').append(size / 2).append("+0+")
+                            .append(size / 4).append('\n');
+                }
+            }
+            putEntry(out, "part1/" + BootAnimationIndex.TRIM_FILE,
+                    trim.toString().getBytes(StandardCharsets.UTF_8), method);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    private static void putEntry(ZipOutputStream out, String name, byte[] data, int method)
+            throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    /**
+     * Times a stage and tracks allocations and the peak of Java plus native heap, where
+     * bitmap pixels live, across all stages.
+     */
+    private static class Stats {
+        private final long mStartAllocated = readAllocatedBytes();
+        private long mStart;
+        private long mPeakHeap;
+
+        void begin() {
+            sample();
+            mStart = SystemClock.elapsedRealtimeNanos();
+        }
+
+        long end() {
+            return endNanos() / 1000000;
+        }
+
+        long endNanos() {
+            long elapsed = SystemClock.elapsedRealtimeNanos() - mStart;
+            sample();
+            return elapsed;
+        }
+
+        void sample() {
+            Runtime runtime = Runtime.getRuntime();
+            long heap = runtime.totalMemory() - runtime.freeMemory()
+                    + Debug.getNativeHeapAllocatedSize();
+            mPeakHeap = Math.max(mPeakHeap, heap);
+        }
+
+        long getPeakHeap() {
+            return mPeakHeap;
+        }
+
+        long getAllocatedBytes() {
+            return readAllocatedBytes() - mStartAllocated;
+        }
+
+        private static long readAllocatedBytes() {
+            try {
+                return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
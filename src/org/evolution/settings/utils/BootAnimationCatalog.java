@@ -0,0 +1,201 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+/**
+ * Builds the small poster frame and short low resolution loop shown for each boot
+ * animation in the style catalog.
+ *
+ * Loops are written to {@link BootAnimationPreviewCache} the first time a style is
+ * prefetched, so later visits only decode the poster from a small cached zip. Prefetching
+ * runs on its own lowest priority pool so it never competes with the main preview.
+ */
+public class BootAnimationCatalog {
+
+    private static final String TAG = "BootAnimationCatalog";
+
+    private static final int LOOP_DURATION = 1500;
+    private static final int PREFETCH_THREAD_COUNT =
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final long PREFETCH_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static ThreadPoolExecutor sPrefetchExecutor;
+
+    public interface Callback {
+        /**
+         * Called on the main thread once the loop of the given style is cached.
+         */
+        void onLoopReady(int position, Bitmap poster, File loop);
+    }
+
+    public interface OpenCallback {
+        /**
+         * Called on the main thread with the index and playlist of an opened loop, which
+         * the callback then owns and has to close, or with a null index if it failed.
+         */
+        void onLoopOpened(BootAnimationIndex index, List<BootAnimationUtils.Frame> frames);
+    }
+
+    /**
+     * Caches the loop of the given zip if needed and decodes its poster. Cancelling the
+     * returned future with interruption stops the work between frames.
+     */
+    public static Future<?> prefetch(Context context, int position, File source, int size,
+            Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        return getPrefetchExecutor().submit(() -> {
+            File loop = BootAnimationPreviewCache.getLoop(appContext, source, size, size);
+            if (loop == null) {
+                loop = buildLoop(appContext, source, size);
+            }
+            if (loop == null || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            Bitmap poster = decodePoster(loop, size);
+            if (poster == null) {
+                return;
+            }
+            final File cachedLoop = loop;
+            sMainHandler.post(() -> callback.onLoopReady(position, poster, cachedLoop));
+        });
+    }
+
+    /**
+     * Opens a cached loop for playback on the prefetch pool. Nothing is left open if the
+     * loop cannot be read.
+     */
+    public static Future<?> open(File loop, OpenCallback callback) {
+        return getPrefetchExecutor().submit(() -> {
+            ZipFile zipFile = null;
+            BootAnimationIndex index = null;
+            try {
+                zipFile = new ZipFile(loop);
+                index = BootAnimationIndex.build(zipFile);
+                List<BootAnimationUtils.Frame> frames =
+                        BootAnimationUtils.getBootAnimationFrameList(index);
+                final BootAnimationIndex opened = index;
+                sMainHandler.post(() -> callback.onLoopOpened(opened, frames));
+                return;
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error opening catalog loop " + loop, e);
+            }
+            try {
+                if (index != null) {
+                    index.close();
+                } else if (zipFile != null) {
+                    zipFile.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing catalog loop " + loop, e);
+            }
+            sMainHandler.post(() -> callback.onLoopOpened(null, null));
+        });
+    }
+
+    /**
+     * Returns the opening frames of the given playlist, up to the catalog loop length.
+     */
+    public static List<BootAnimationUtils.Frame> getLoopFrames(
+            List<BootAnimationUtils.Frame> playlist) {
+        List<BootAnimationUtils.Frame> frames = new ArrayList<>();
+        int duration = 0;
+        for (BootAnimationUtils.Frame frame : playlist) {
+            if (duration >= LOOP_DURATION) {
+                break;
+            }
+            frames.add(frame);
+            duration += frame.duration;
+        }
+        return frames;
+    }
+
+    private static File buildLoop(Context context, File source, int size) {
+        if (!source.exists()) {
+            return null;
+        }
+        try (BootAnimationIndex index = BootAnimationIndex.build(new ZipFile(source))) {
+            List<BootAnimationUtils.Frame> frames = getLoopFrames(
+                    BootAnimationUtils.getBootAnimationFrameList(index));
+            if (frames.isEmpty()) {
+                return null;
+            }
+            BootAnimationPreviewCache.Writer writer = BootAnimationPreviewCache.newLoopWriter(
+                    context, source, index, frames, size, size);
+            if (writer == null) {
+                return null;
+            }
+            for (BootAnimationUtils.Frame frame : frames) {
+                if (Thread.currentThread().isInterrupted()) {
+                    writer.abort();
+                    return null;
+                }
+                Bitmap bitmap = BootAnimationUtils.decodeFrame(index.getZipFile(), frame,
+                        size, size, null);
+                if (bitmap == null) {
+                    writer.abort();
+                    return null;
+                }
+                boolean done = writer.add(frame, bitmap);
+                bitmap.recycle();
+                if (done) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error building catalog loop for " + source, e);
+            return null;
+        }
+        return BootAnimationPreviewCache.getLoop(context, source, size, size);
+    }
+
+    private static Bitmap decodePoster(File loop, int size) {
+        try (BootAnimationIndex index = BootAnimationIndex.build(new ZipFile(loop))) {
+            List<BootAnimationUtils.Frame> frames =
+                    BootAnimationUtils.getBootAnimationFrameList(index);
+            if (!frames.isEmpty()) {
+                return BootAnimationUtils.decodeFrame(index.getZipFile(), frames.get(0),
+                        size, size, null);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading catalog loop " + loop, e);
+        }
+        return null;
+    }
+
+    private static synchronized ExecutorService getPrefetchExecutor() {
+        if (sPrefetchExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            sPrefetchExecutor = new ThreadPoolExecutor(PREFETCH_THREAD_COUNT,
+                    PREFETCH_THREAD_COUNT, PREFETCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                        runnable.run();
+                    }, TAG + "#" + threadCount.incrementAndGet()));
+            sPrefetchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sPrefetchExecutor;
+    }
+}
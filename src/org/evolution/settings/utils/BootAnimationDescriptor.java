@@ -0,0 +1,201 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.graphics.Color;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Typed form of a boot animation's desc.txt, following the format read by
+ * frameworks/base/cmds/bootanimation.
+ */
+public class BootAnimationDescriptor {
+
+    private static final String TAG = "BootAnimationDescriptor";
+
+    public static final String DESC_FILE = "desc.txt";
+    public static final int NO_COLOR = Color.TRANSPARENT;
+
+    private static final String DYNAMIC_COLORS = "dynamic_colors";
+    private static final int DEFAULT_FPS = 30;
+
+    public static class Part {
+        public static final char TYPE_PLAY = 'p';
+        public static final char TYPE_COMPLETE = 'c';
+        public static final char TYPE_FADE = 'f';
+
+        public final char type;
+        /** Number of times to play the part, 0 loops until boot completes. */
+        public final int count;
+        /** Number of frames to hold after each repetition. */
+        public final int pause;
+        public final String path;
+        /** Number of frames faded out when interrupted, only used by 'f' parts. */
+        public final int framesToFade;
+        public final int backgroundColor;
+
+        Part(char type, int count, int pause, String path, int framesToFade,
+                int backgroundColor) {
+            this.type = type;
+            this.count = count;
+            this.pause = pause;
+            this.path = path;
+            this.framesToFade = framesToFade;
+            this.backgroundColor = backgroundColor;
+        }
+
+        public boolean playUntilComplete() {
+            return type == TYPE_COMPLETE;
+        }
+    }
+
+    public final int width;
+    public final int height;
+    public final int fps;
+    public final List<Part> parts;
+    /** Part the dynamic colors start being applied from, or null. */
+    public final String dynamicColorsStartPart;
+    /** The four dynamic colors in desc.txt order, empty when not set. */
+    public final int[] dynamicColors;
+
+    private BootAnimationDescriptor(int width, int height, int fps, List<Part> parts,
+            String dynamicColorsStartPart, int[] dynamicColors) {
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.parts = Collections.unmodifiableList(parts);
+        this.dynamicColorsStartPart = dynamicColorsStartPart;
+        this.dynamicColors = dynamicColors;
+    }
+
+    public int getFrameDuration() {
+        return 1000 / fps;
+    }
+
+    /**
+     * Reads desc.txt from the given zip, or returns null if it is missing or unreadable.
+     */
+    public static BootAnimationDescriptor load(ZipFile zipFile) {
+        return load(zipFile, zipFile.getEntry(DESC_FILE));
+    }
+
+    public static BootAnimationDescriptor load(ZipFile zipFile, ZipEntry descEntry) {
+        if (descEntry == null) {
+            Log.w(TAG, "No " + DESC_FILE + " in " + zipFile.getName());
+            return null;
+        }
+        try (InputStream is = zipFile.getInputStream(descEntry)) {
+            return parse(is);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading " + DESC_FILE, e);
+        }
+        return null;
+    }
+
+    public static BootAnimationDescriptor parse(InputStream is) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(is, StandardCharsets.UTF_8));
+        int width = 0;
+        int height = 0;
+        int fps = DEFAULT_FPS;
+        boolean headerRead = false;
+        List<Part> parts = new ArrayList<>();
+        String dynamicColorsStartPart = null;
+        int[] dynamicColors = new int[0];
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens.length == 0 || tokens[0].isEmpty()) {
+                continue;
+            }
+            if (!headerRead && tokens.length >= 3 && isInteger(tokens[0])) {
+                width = parseInt(tokens[0], 0);
+                height = parseInt(tokens[1], 0);
+                int parsedFps = parseInt(tokens[2], DEFAULT_FPS);
+                fps = parsedFps > 0 ? parsedFps : DEFAULT_FPS;
+                headerRead = true;
+            } else if (DYNAMIC_COLORS.equals(tokens[0]) && tokens.length >= 6) {
+                dynamicColorsStartPart = tokens[1];
+                dynamicColors = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    dynamicColors[i] = parseColor(tokens[2 + i]);
+                }
+            } else if (tokens[0].length() == 1 && tokens.length >= 4
+                    && isInteger(tokens[1]) && isInteger(tokens[2])) {
+                Part part = parsePart(tokens);
+                if (part != null) {
+                    parts.add(part);
+                }
+            }
+        }
+        return new BootAnimationDescriptor(width, height, fps, parts,
+                dynamicColorsStartPart, dynamicColors);
+    }
+
+    private static Part parsePart(String[] tokens) {
+        char type = tokens[0].charAt(0);
+        if (type != Part.TYPE_PLAY && type != Part.TYPE_COMPLETE && type != Part.TYPE_FADE) {
+            Log.w(TAG, "Unknown part type " + type);
+            return null;
+        }
+        int count = Math.max(parseInt(tokens[1], 1), 0);
+        int pause = Math.max(parseInt(tokens[2], 0), 0);
+        String path = tokens[3];
+        int next = 4;
+        int framesToFade = 0;
+        if (type == Part.TYPE_FADE && tokens.length > next && isInteger(tokens[next])) {
+            framesToFade = Math.max(parseInt(tokens[next++], 0), 0);
+        }
+        int backgroundColor = NO_COLOR;
+        if (tokens.length > next && tokens[next].startsWith("#")) {
+            backgroundColor = parseColor(tokens[next]);
+        }
+        // Remaining tokens are clock positions, which the preview does not draw.
+        return new Part(type, count, pause, path, framesToFade, backgroundColor);
+    }
+
+    private static int parseColor(String token) {
+        try {
+            return Color.parseColor(token.startsWith("#") ? token : "#" + token);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Invalid color " + token);
+        }
+        return NO_COLOR;
+    }
+
+    private static boolean isInteger(String token) {
+        if (token.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (!Character.isDigit(c) && !(i == 0 && c == '-' && token.length() > 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseInt(String token, int defValue) {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Index of a boot animation zip, built in a single pass over its central directory.
+ *
+ * Maps every folder to its frames, in natural name order rather than physical zip order,
+ * and to its trim.txt, and holds the parsed desc.txt. Preview, caching and validation all
+ * work from one index instead of rescanning the zip.
+ */
+public class BootAnimationIndex implements Closeable {
+
+    public static final String TRIM_FILE = "trim.txt";
+
+    private static final String[] FRAME_EXTENSIONS = { ".png", ".jpg", ".webp" };
+
+    private final ZipFile mZipFile;
+    private final ZipEntry mDescEntry;
+    private final Map<String, List<ZipEntry>> mFrames;
+    private final Map<String, ZipEntry> mTrimEntries;
+    private BootAnimationDescriptor mDescriptor;
+    private boolean mDescriptorLoaded;
+
+    private BootAnimationIndex(ZipFile zipFile, ZipEntry descEntry,
+            Map<String, List<ZipEntry>> frames, Map<String, ZipEntry> trimEntries) {
+        mZipFile = zipFile;
+        mDescEntry = descEntry;
+        mFrames = frames;
+        mTrimEntries = trimEntries;
+    }
+
+    public static BootAnimationIndex build(ZipFile zipFile) {
+        return build(zipFile, null);
+    }
+
+    /**
+     * Like {@link #build(ZipFile)}, checking the signal between entries.
+     *
+     * @throws OperationCanceledException if the signal is cancelled while indexing
+     */
+    public static BootAnimationIndex build(ZipFile zipFile, CancellationSignal signal) {
+        ZipEntry descEntry = null;
+        Map<String, List<ZipEntry>> frames = new HashMap<>();
+        Map<String, ZipEntry> trimEntries = new HashMap<>();
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String name = entry.getName();
+            int separator = name.lastIndexOf('/');
+            String folder = separator >= 0 ? name.substring(0, separator) : "";
+            String leaf = name.substring(separator + 1);
+            if (folder.isEmpty() && BootAnimationDescriptor.DESC_FILE.equals(leaf)) {
+                descEntry = entry;
+            } else if (TRIM_FILE.equals(leaf)) {
+                trimEntries.put(folder, entry);
+            } else if (isFrame(leaf)) {
+                frames.computeIfAbsent(folder, k -> new ArrayList<>()).add(entry);
+            }
+        }
+        for (List<ZipEntry> partFrames : frames.values()) {
+            Collections.sort(partFrames, NATURAL_ORDER);
+        }
+        return new BootAnimationIndex(zipFile, descEntry, frames, trimEntries);
+    }
+
+    public ZipFile getZipFile() {
+        return mZipFile;
+    }
+
+    public ZipEntry getDescEntry() {
+        return mDescEntry;
+    }
+
+    /**
+     * Returns the parsed desc.txt, or null if it is missing or unreadable.
+     */
+    public synchronized BootAnimationDescriptor getDescriptor() {
+        if (!mDescriptorLoaded) {
+            mDescriptor = BootAnimationDescriptor.load(mZipFile, mDescEntry);
+            mDescriptorLoaded = true;
+        }
+        return mDescriptor;
+    }
+
+    public Set<String> getFolders() {
+        return Collections.unmodifiableSet(mFrames.keySet());
+    }
+
+    /**
+     * Returns the frames of the given folder in natural order.
+     */
+    public List<ZipEntry> getFrames(String folder) {
+        List<ZipEntry> frames = mFrames.get(folder);
+        return frames != null ? Collections.unmodifiableList(frames) : Collections.emptyList();
+    }
+
+    public ZipEntry getTrimEntry(String folder) {
+        return mTrimEntries.get(folder);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mZipFile.close();
+    }
+
+    private static boolean isFrame(String leaf) {
+        if (leaf.isEmpty() || leaf.startsWith(".")) {
+            return false;
+        }
+        for (String extension : FRAME_EXTENSIONS) {
+            if (leaf.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Orders entries by name with runs of digits compared by value, so "frame2" sorts
+     * before "frame10".
+     */
+    private static final Comparator<ZipEntry> NATURAL_ORDER = (a, b) -> {
+        String s1 = a.getName();
+        String s2 = b.getName();
+        int i = 0;
+        int j = 0;
+        while (i < s1.length() && j < s2.length()) {
+            char c1 = s1.charAt(i);
+            char c2 = s2.charAt(j);
+            if (Character.isDigit(c1) && Character.isDigit(c2)) {
+                int start1 = i;
+                int start2 = j;
+                while (i < s1.length() && s1.charAt(i) == '0') i++;
+                while (j < s2.length() && s2.charAt(j) == '0') j++;
+                int digits1 = i;
+                int digits2 = j;
+                while (digits1 < s1.length() && Character.isDigit(s1.charAt(digits1))) digits1++;
+                while (digits2 < s2.length() && Character.isDigit(s2.charAt(digits2))) digits2++;
+                int length1 = digits1 - i;
+                int length2 = digits2 - j;
+                if (length1 != length2) {
+                    return length1 - length2;
+                }
+                int result = s1.substring(i, digits1).compareTo(s2.substring(j, digits2));
+                if (result != 0) {
+                    return result;
+                }
+                // Equal values, fall back to the number of leading zeros
+                int zeros = (i - start1) - (j - start2);
+                if (zeros != 0) {
+                    return zeros;
+                }
+                i = digits1;
+                j = digits2;
+            } else {
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+                i++;
+                j++;
+            }
+        }
+        return (s1.length() - i) - (s2.length() - j);
+    };
+}
@@ -0,0 +1,360 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipFile;
+
+/**
+ * Installs boot animation zips to {@link #CUSTOM_BOOTANIMATION_FILE} off the main thread.
+ *
+ * The zip is copied with {@link FileChannel} transfers into a temporary file next to the
+ * target, hashing it as it goes by, checked, synced and then renamed over the target, so a
+ * crash at any point leaves either the old or the new animation in place, never a
+ * truncated one. A zip of the same size as the installed one is hashed against it first,
+ * and not copied at all if the content matches. User picked zips are run through
+ * {@link BootAnimationOptimizer} before they replace the target.
+ */
+public class BootAnimationInstaller {
+
+    private static final String TAG = "BootAnimationInstaller";
+
+    public static final String CUSTOM_BOOTANIMATION_FILE = "/data/misc/bootanim/bootanimation.zip";
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String OPTIMIZED_SUFFIX = ".opt";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    public interface Callback {
+        /**
+         * Called on the main thread once the install finished.
+         */
+        void onResult(boolean success);
+
+        /**
+         * Called on the main thread before {@link #onResult} when the zip was optimized.
+         */
+        default void onOptimized(BootAnimationOptimizer.Result result) {
+        }
+    }
+
+    public static void install(Context context, File source, Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(() -> {
+            boolean success = false;
+            try (FileInputStream in = new FileInputStream(source)) {
+                success = install(appContext, in.getChannel(), null);
+            } catch (IOException e) {
+                Log.e(TAG, "Error installing " + source, e);
+            }
+            postResult(callback, success);
+        });
+    }
+
+    public static void install(Context context, Uri source, Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(() -> {
+            boolean success = false;
+            try (ParcelFileDescriptor pfd =
+                            appContext.getContentResolver().openFileDescriptor(source, "r");
+                    FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+                success = install(appContext, in.getChannel(), callback);
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "Error installing " + source, e);
+            }
+            postResult(callback, success);
+        });
+    }
+
+    private static void postResult(Callback callback, boolean success) {
+        if (callback != null) {
+            sMainHandler.post(() -> callback.onResult(success));
+        }
+    }
+
+    /**
+     * Installs the given zip, optimizing it first when a callback to report to is given.
+     */
+    private static boolean install(Context context, FileChannel source,
+            Callback optimizeCallback) throws IOException {
+        File target = new File(CUSTOM_BOOTANIMATION_FILE);
+        File dir = target.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+
+        long sourceSize = getSize(source);
+        if (sourceSize > 0 && target.length() == sourceSize
+                && Arrays.equals(digest(source, sourceSize), digest(target))) {
+            Log.d(TAG, "Boot animation already installed, skipping copy");
+            return true;
+        }
+
+        File tmp = new File(dir, target.getName() + TMP_SUFFIX);
+        try {
+            byte[] tmpDigest = copy(source, sourceSize, tmp);
+            if (!isValidBootAnimation(tmp)) {
+                throw new IOException("Not a boot animation zip");
+            }
+            if (optimizeCallback != null) {
+                BootAnimationOptimizer.Result result = optimize(tmp);
+                if (result != null) {
+                    tmpDigest = digest(tmp);
+                    sMainHandler.post(() -> optimizeCallback.onOptimized(result));
+                }
+            }
+            if (target.length() == tmp.length() && Arrays.equals(tmpDigest, digest(target))) {
+                Log.d(TAG, "Boot animation already installed");
+                return true;
+            }
+            tmp.setReadable(true, false);
+            if (!tmp.renameTo(target)) {
+                throw new IOException("Failed to rename " + tmp + " to " + target);
+            }
+            syncDirectory(dir);
+        } finally {
+            if (tmp.exists() && !tmp.delete()) {
+                Log.w(TAG, "Failed to delete " + tmp);
+            }
+        }
+        BootAnimationPreviewCache.invalidate(context, CUSTOM_BOOTANIMATION_FILE);
+        return true;
+    }
+
+    /**
+     * Replaces the given zip with its optimized form. Returns null and leaves the zip as is
+     * if optimizing failed or produced something that is not a valid boot animation.
+     */
+    private static BootAnimationOptimizer.Result optimize(File zip) throws IOException {
+        File optimized = new File(zip.getPath() + OPTIMIZED_SUFFIX);
+        try {
+            BootAnimationOptimizer.Result result = BootAnimationOptimizer.optimize(zip, optimized);
+            if (result == null || !isValidBootAnimation(optimized)) {
+                return null;
+            }
+            try (FileOutputStream out = new FileOutputStream(optimized, true)) {
+                out.getChannel().force(true);
+            }
+            if (!optimized.renameTo(zip)) {
+                throw new IOException("Failed to rename " + optimized + " to " + zip);
+            }
+            return result;
+        } finally {
+            if (optimized.exists() && !optimized.delete()) {
+                Log.w(TAG, "Failed to delete " + optimized);
+            }
+        }
+    }
+
+    /**
+     * Copies the source to the given file and syncs it, hashing the data as it is copied.
+     * A source of known size has to be copied in full. Returns the digest of the copy.
+     */
+    static byte[] copy(FileChannel source, long sourceSize, File target) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileOutputStream out = new FileOutputStream(target)) {
+            FileChannel channel = out.getChannel();
+            long copied = sourceSize > 0
+                    ? transferTo(source, sourceSize, new DigestWritableChannel(channel, digest))
+                    : transferFrom(new DigestReadableChannel(source, digest), channel);
+            if (sourceSize > 0 && copied != sourceSize) {
+                throw new IOException("Short copy: " + copied + " of " + sourceSize);
+            }
+            channel.force(true);
+        }
+        return digest.digest();
+    }
+
+    private static long getSize(FileChannel channel) {
+        try {
+            // Pipes report no size and cannot be positioned.
+            channel.position(0);
+            return channel.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static long transferTo(FileChannel source, long size, WritableByteChannel target)
+            throws IOException {
+        long position = 0;
+        while (position < size) {
+            long transferred = source.transferTo(position,
+                    Math.min(TRANSFER_CHUNK_SIZE, size - position), target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+        return position;
+    }
+
+    private static long transferFrom(ReadableByteChannel source, FileChannel target)
+            throws IOException {
+        long position = 0;
+        long transferred;
+        while ((transferred = target.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+            position += transferred;
+        }
+        return position;
+    }
+
+    private static byte[] digest(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            return digest(in.getChannel(), file.length());
+        }
+    }
+
+    private static byte[] digest(FileChannel channel, long size) throws IOException {
+        MessageDigest digest = newDigest();
+        if (size > 0) {
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static boolean isValidBootAnimation(File file) {
+        try (BootAnimationIndex index = BootAnimationIndex.build(new ZipFile(file))) {
+            BootAnimationDescriptor descriptor = index.getDescriptor();
+            if (descriptor == null) {
+                return false;
+            }
+            for (BootAnimationDescriptor.Part part : descriptor.parts) {
+                if (!index.getFrames(part.path).isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            Log.e(TAG, "Invalid boot animation zip", e);
+        }
+        return false;
+    }
+
+    private static void syncDirectory(File dir) {
+        FileDescriptor fd = null;
+        try {
+            fd = Os.open(dir.getPath(), OsConstants.O_RDONLY, 0);
+            Os.fsync(fd);
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Failed to sync " + dir, e);
+        } finally {
+            if (fd != null) {
+                try {
+                    Os.close(fd);
+                } catch (ErrnoException e) {
+                    // Ignored
+                }
+            }
+        }
+    }
+
+    /**
+     * Hashes everything written through it. Transfers into it cannot take the zero copy
+     * path, the data has to pass through the digest anyway.
+     */
+    private static class DigestWritableChannel implements WritableByteChannel {
+        private final WritableByteChannel mChannel;
+        private final MessageDigest mDigest;
+
+        DigestWritableChannel(WritableByteChannel channel, MessageDigest digest) {
+            mChannel = channel;
+            mDigest = digest;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ByteBuffer written = src.duplicate();
+            int count = mChannel.write(src);
+            written.limit(written.position() + count);
+            mDigest.update(written);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mChannel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mChannel.close();
+        }
+    }
+
+    /**
+     * Hashes everything read through it.
+     */
+    private static class DigestReadableChannel implements ReadableByteChannel {
+        private final ReadableByteChannel mChannel;
+        private final MessageDigest mDigest;
+
+        DigestReadableChannel(ReadableByteChannel channel, MessageDigest digest) {
+            mChannel = channel;
+            mDigest = digest;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int start = dst.position();
+            int count = mChannel.read(dst);
+            if (count > 0) {
+                ByteBuffer read = dst.duplicate();
+                read.position(start).limit(start + count);
+                mDigest.update(read);
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mChannel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mChannel.close();
+        }
+    }
+}
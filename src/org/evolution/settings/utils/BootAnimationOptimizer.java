@@ -0,0 +1,524 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rewrites a boot animation zip into a form bootanimation can load faster.
+ *
+ * <ul>
+ * <li>Every entry is stored uncompressed and its data is aligned to 4 bytes, like zipalign
+ * does, so bootanimation can map frames instead of inflating them.</li>
+ * <li>Transparent borders are cropped from PNG frames and recorded in a generated
+ * trim.txt, so less has to be decoded and drawn per frame.</li>
+ * <li>Identical frames at the end of a part are dropped and added to the part's pause
+ * instead, which shows the same image for the same time.</li>
+ * </ul>
+ *
+ * Frames are processed in plain name order, which is the order bootanimation plays them and
+ * reads trim.txt in. Parts whose frames the preview would list in another order, such as
+ * unpadded 1.png to 10.png, are only stored: trim lines and dropped frames could not match
+ * both orders.
+ */
+public class BootAnimationOptimizer {
+
+    private static final String TAG = "BootAnimationOptimizer";
+
+    private static final int ALIGNMENT = 4;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final long ENTRY_TIME = 1230768000000L; // 2009-01-01
+    private static final String PNG_EXTENSION = ".png";
+    /** Only trim frames when at least this share of their pixels can be dropped. */
+    private static final float MIN_TRIM_SAVING = 0.1f;
+
+    /**
+     * What an optimization saved. Pixel counts cover one pass over every part.
+     */
+    public static class Result {
+        public final long bytesBefore;
+        public final long bytesAfter;
+        /** Bytes that no longer have to be inflated while booting. */
+        public final long inflatedBytesAvoided;
+        public final int framesMerged;
+        public final int framesTrimmed;
+        public final long pixelsBefore;
+        public final long pixelsAfter;
+
+        Result(long bytesBefore, long bytesAfter, long inflatedBytesAvoided, int framesMerged,
+                int framesTrimmed, long pixelsBefore, long pixelsAfter) {
+            this.bytesBefore = bytesBefore;
+            this.bytesAfter = bytesAfter;
+            this.inflatedBytesAvoided = inflatedBytesAvoided;
+            this.framesMerged = framesMerged;
+            this.framesTrimmed = framesTrimmed;
+            this.pixelsBefore = pixelsBefore;
+            this.pixelsAfter = pixelsAfter;
+        }
+
+        /**
+         * Returns how much the zip grew, negative if it shrank. Storing entries uncompressed
+         * usually makes it larger, the gain is in what no longer has to be inflated.
+         */
+        public long getSizeChange() {
+            return bytesAfter - bytesBefore;
+        }
+
+        /**
+         * Returns the share of decoded pixels saved per pass, in percent.
+         */
+        public int getDecodeSavingPercent() {
+            return pixelsBefore > 0
+                    ? (int) ((pixelsBefore - pixelsAfter) * 100 / pixelsBefore) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{bytes=" + bytesBefore + "->" + bytesAfter
+                    + ", inflateAvoided=" + inflatedBytesAvoided
+                    + ", framesMerged=" + framesMerged
+                    + ", framesTrimmed=" + framesTrimmed
+                    + ", pixels=" + pixelsBefore + "->" + pixelsAfter + "}";
+        }
+    }
+
+    /**
+     * Writes an optimized copy of source to target. Returns null and leaves no target
+     * behind if the source cannot be optimized.
+     */
+    public static Result optimize(File source, File target) {
+        try (BootAnimationIndex index = BootAnimationIndex.build(new ZipFile(source))) {
+            BootAnimationDescriptor descriptor = index.getDescriptor();
+            if (descriptor == null) {
+                return null;
+            }
+            Result result = new BootAnimationOptimizer(index, descriptor)
+                    .write(target, source.length());
+            Log.d(TAG, "Optimized " + source + ": " + result);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error optimizing " + source, e);
+        }
+        target.delete();
+        return null;
+    }
+
+    private final BootAnimationIndex mIndex;
+    private final BootAnimationDescriptor mDescriptor;
+    private final CRC32 mCrc = new CRC32();
+    private final Map<String, Integer> mExtraPause = new HashMap<>();
+    private final Set<String> mWritten = new HashSet<>();
+
+    private ZipOutputStream mOut;
+    private CountingOutputStream mCounter;
+    private long mInflatedBytesAvoided;
+    private int mFramesMerged;
+    private int mFramesTrimmed;
+    private long mPixelsBefore;
+    private long mPixelsAfter;
+
+    private BootAnimationOptimizer(BootAnimationIndex index,
+            BootAnimationDescriptor descriptor) {
+        mIndex = index;
+        mDescriptor = descriptor;
+    }
+
+    private Result write(File target, long sourceSize) throws IOException {
+        mCounter = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(target)));
+        try (ZipOutputStream out = new ZipOutputStream(mCounter)) {
+            mOut = out;
+            // Folders are written first since merging frames changes the part pauses.
+            Set<String> paths = new HashSet<>();
+            List<String> orderedPaths = new ArrayList<>();
+            for (BootAnimationDescriptor.Part part : mDescriptor.parts) {
+                if (paths.add(part.path)) {
+                    orderedPaths.add(part.path);
+                }
+            }
+            for (String path : orderedPaths) {
+                optimizeFolder(path);
+            }
+            writeDescriptor();
+            copyRemainingEntries();
+        }
+        return new Result(sourceSize, target.length(), mInflatedBytesAvoided, mFramesMerged,
+                mFramesTrimmed, mPixelsBefore, mPixelsAfter);
+    }
+
+    private void optimizeFolder(String path) throws IOException {
+        List<ZipEntry> indexed = mIndex.getFrames(path);
+        if (indexed.isEmpty()) {
+            return;
+        }
+        List<ZipEntry> frames = new ArrayList<>(indexed);
+        Collections.sort(frames, (a, b) -> a.getName().compareTo(b.getName()));
+        boolean sameOrder = frames.equals(indexed);
+        if (!sameOrder) {
+            Log.w(TAG, "Not trimming or merging " + path
+                    + ", its frame names do not sort the same way for bootanimation");
+        }
+        ZipEntry trimEntry = mIndex.getTrimEntry(path);
+        List<String> trimLines = trimEntry != null ? readLines(trimEntry) : null;
+        // Existing trim data is kept, and only if it can be matched up with the frames.
+        boolean merge = sameOrder && (trimLines == null || trimLines.size() == frames.size());
+        List<OptimizedFrame> optimized = optimizeFrames(frames, trimLines,
+                sameOrder && trimLines == null, merge);
+        if (optimized == null) {
+            Log.w(TAG, "Not trimming " + path + ", a frame could not be read");
+            optimized = optimizeFrames(frames, trimLines, false, merge);
+        }
+
+        // Duplicates repeat the frame before them, count the run at the end of the part.
+        int duplicates = 0;
+        for (int i = optimized.size() - 1; i > 0
+                && optimized.get(i) == optimized.get(i - 1); i--) {
+            duplicates++;
+        }
+        int passes = getPassCount(path);
+        int kept = frames.size() - duplicates;
+        for (int i = 0; i < frames.size(); i++) {
+            OptimizedFrame frame = optimized.get(i);
+            mPixelsBefore += frame.pixelsBefore * passes;
+            if (i < kept) {
+                mPixelsAfter += frame.pixelsAfter * passes;
+                putStoredEntry(frames.get(i), frame.bytes);
+                if (frame.pixelsAfter < frame.pixelsBefore
+                        && (i == 0 || frame != optimized.get(i - 1))) {
+                    mFramesTrimmed++;
+                }
+            }
+        }
+        if (duplicates > 0) {
+            mExtraPause.put(path, duplicates);
+            mFramesMerged += duplicates;
+        }
+        if (trimEntry != null && !merge) {
+            putStoredEntry(trimEntry, readEntry(trimEntry));
+        } else {
+            StringBuilder trimData = new StringBuilder();
+            boolean trimmed = false;
+            for (int i = 0; i < kept; i++) {
+                String line = optimized.get(i).trimLine;
+                if (line != null) {
+                    trimData.append(line).append('\n');
+                    trimmed |= optimized.get(i).pixelsAfter < optimized.get(i).pixelsBefore
+                            || trimEntry != null;
+                }
+            }
+            if (trimmed) {
+                String name = path.isEmpty() ? BootAnimationIndex.TRIM_FILE
+                        : path + "/" + BootAnimationIndex.TRIM_FILE;
+                putStoredEntry(name, trimData.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        for (ZipEntry entry : frames) {
+            mWritten.add(entry.getName());
+        }
+        if (trimEntry != null) {
+            mWritten.add(trimEntry.getName());
+        }
+    }
+
+    /**
+     * Returns one frame per entry, duplicates being the same object as the frame before
+     * them. When trimming, every frame gets a trim line so the lines stay in step with the
+     * frames; returns null if a frame's size cannot even be read to write its line.
+     */
+    private List<OptimizedFrame> optimizeFrames(List<ZipEntry> frames, List<String> trimLines,
+            boolean trim, boolean merge) throws IOException {
+        List<OptimizedFrame> optimized = new ArrayList<>();
+        Bitmap previous = null;
+        ZipEntry previousEntry = null;
+        try {
+            for (int i = 0; i < frames.size(); i++) {
+                ZipEntry entry = frames.get(i);
+                byte[] bytes = readEntry(entry);
+                Bitmap bitmap = trim ? decode(bytes) : null;
+                boolean duplicate = false;
+                if (merge && previousEntry != null) {
+                    boolean samePosition = trimLines == null
+                            || trimLines.get(i).equals(trimLines.get(i - 1));
+                    duplicate = (isSameEntry(entry, previousEntry) && samePosition)
+                            || (bitmap != null && bitmap.sameAs(previous));
+                }
+                if (previous != null) {
+                    previous.recycle();
+                }
+                previous = bitmap;
+                previousEntry = entry;
+                if (duplicate) {
+                    // Only a run that reaches the end of the part can become a pause, so
+                    // the run is repeated from the frame before it until it is known to be
+                    // trailing.
+                    optimized.add(optimized.get(optimized.size() - 1));
+                } else if (bitmap != null) {
+                    optimized.add(trimFrame(entry, bytes, bitmap));
+                } else {
+                    BitmapFactory.Options bounds = readBounds(bytes);
+                    long pixels = (long) bounds.outWidth * bounds.outHeight;
+                    String line = trimLines != null && i < trimLines.size()
+                            ? trimLines.get(i) : null;
+                    if (trim) {
+                        if (pixels == 0) {
+                            return null;
+                        }
+                        // Shown untrimmed, over the whole frame.
+                        line = bounds.outWidth + "x" + bounds.outHeight + "+0+0";
+                    }
+                    optimized.add(new OptimizedFrame(bytes, line, pixels, pixels));
+                }
+            }
+        } finally {
+            if (previous != null) {
+                previous.recycle();
+            }
+        }
+        return optimized;
+    }
+
+    private OptimizedFrame trimFrame(ZipEntry entry, byte[] bytes, Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        long pixels = (long) width * height;
+        Rect bounds = entry.getName().endsWith(PNG_EXTENSION) && bitmap.hasAlpha()
+                ? getOpaqueBounds(bitmap) : null;
+        if (bounds == null || bounds.isEmpty()
+                || (long) bounds.width() * bounds.height() > pixels * (1 - MIN_TRIM_SAVING)) {
+            return new OptimizedFrame(bytes, width + "x" + height + "+0+0", pixels, pixels);
+        }
+        int[] pixelData = new int[bounds.width() * bounds.height()];
+        bitmap.getPixels(pixelData, 0, bounds.width(), bounds.left, bounds.top,
+                bounds.width(), bounds.height());
+        Bitmap cropped = Bitmap.createBitmap(bounds.width(), bounds.height(),
+                Bitmap.Config.ARGB_8888);
+        cropped.setPremultiplied(false);
+        cropped.setPixels(pixelData, 0, bounds.width(), 0, 0, bounds.width(), bounds.height());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cropped.compress(Bitmap.CompressFormat.PNG, 100, out);
+        cropped.recycle();
+        if (out.size() >= bytes.length) {
+            // Re-encoding widens palette and grayscale PNGs to ARGB, keep the original.
+            return new OptimizedFrame(bytes, width + "x" + height + "+0+0", pixels, pixels);
+        }
+        return new OptimizedFrame(out.toByteArray(), bounds.width() + "x" + bounds.height()
+                + "+" + bounds.left + "+" + bounds.top, pixels,
+                (long) bounds.width() * bounds.height());
+    }
+
+    /**
+     * Returns the bounds of all pixels that are not fully transparent.
+     */
+    private static Rect getOpaqueBounds(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = new int[width];
+        int left = width;
+        int top = height;
+        int right = -1;
+        int bottom = -1;
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                if ((row[x] >>> 24) != 0) {
+                    left = Math.min(left, x);
+                    right = Math.max(right, x);
+                    top = Math.min(top, y);
+                    bottom = y;
+                }
+            }
+        }
+        return right < 0 ? new Rect() : new Rect(left, top, right + 1, bottom + 1);
+    }
+
+    private void writeDescriptor() throws IOException {
+        ZipEntry descEntry = mIndex.getDescEntry();
+        StringBuilder desc = new StringBuilder();
+        for (String line : readLines(descEntry)) {
+            String[] tokens = line.trim().split("\\s+");
+            Integer extraPause = tokens.length >= 4 && isPartType(tokens[0])
+                    ? mExtraPause.get(tokens[3]) : null;
+            if (extraPause != null) {
+                try {
+                    tokens[2] = String.valueOf(Integer.parseInt(tokens[2]) + extraPause);
+                    line = String.join(" ", tokens);
+                } catch (NumberFormatException e) {
+                    // Left as is, the descriptor parser would have skipped it too
+                }
+            }
+            desc.append(line).append('\n');
+        }
+        putStoredEntry(BootAnimationDescriptor.DESC_FILE,
+                desc.toString().getBytes(StandardCharsets.UTF_8));
+        mWritten.add(descEntry.getName());
+    }
+
+    private void copyRemainingEntries() throws IOException {
+        Enumeration<? extends ZipEntry> entries = mIndex.getZipFile().entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (mWritten.add(entry.getName())) {
+                putStoredEntry(entry, entry.isDirectory() ? new byte[0] : readEntry(entry));
+            }
+        }
+    }
+
+    private void putStoredEntry(ZipEntry source, byte[] data) throws IOException {
+        if (source.getMethod() == ZipEntry.DEFLATED) {
+            mInflatedBytesAvoided += data.length;
+        }
+        putStoredEntry(source.getName(), data);
+    }
+
+    private void putStoredEntry(String name, byte[] data) throws IOException {
+        mCrc.reset();
+        mCrc.update(data, 0, data.length);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(mCrc.getValue());
+        // A fixed time keeps the output reproducible, and unlike times before 1980 it
+        // needs no extended timestamp field that would shift the data offset.
+        entry.setTime(ENTRY_TIME);
+        // Pad the extra field so the entry data starts on an aligned offset.
+        long dataOffset = mCounter.getCount() + LOCAL_HEADER_SIZE
+                + name.getBytes(StandardCharsets.UTF_8).length;
+        int padding = (int) ((ALIGNMENT - dataOffset % ALIGNMENT) % ALIGNMENT);
+        if (padding > 0) {
+            entry.setExtra(new byte[padding]);
+        }
+        mOut.putNextEntry(entry);
+        mOut.write(data);
+        mOut.closeEntry();
+    }
+
+    private int getPassCount(String path) {
+        int passes = 0;
+        for (BootAnimationDescriptor.Part part : mDescriptor.parts) {
+            if (part.path.equals(path)) {
+                passes += Math.max(part.count, 1);
+            }
+        }
+        return passes;
+    }
+
+    private static BitmapFactory.Options readBounds(byte[] bytes) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            options.outWidth = 0;
+            options.outHeight = 0;
+        }
+        return options;
+    }
+
+    private static Bitmap decode(byte[] bytes) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // Keep the exact colors of translucent pixels for re-encoding.
+        options.inPremultiplied = false;
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+
+    private static boolean isSameEntry(ZipEntry a, ZipEntry b) {
+        return a.getSize() >= 0 && a.getSize() == b.getSize() && a.getCrc() == b.getCrc();
+    }
+
+    private static boolean isPartType(String token) {
+        return token.length() == 1
+                && (token.charAt(0) == BootAnimationDescriptor.Part.TYPE_PLAY
+                        || token.charAt(0) == BootAnimationDescriptor.Part.TYPE_COMPLETE
+                        || token.charAt(0) == BootAnimationDescriptor.Part.TYPE_FADE);
+    }
+
+    private byte[] readEntry(ZipEntry entry) throws IOException {
+        try (InputStream is = mIndex.getZipFile().getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    entry.getSize() > 0 ? (int) entry.getSize() : 8192);
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = is.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private List<String> readLines(ZipEntry entry) throws IOException {
+        String text = new String(readEntry(entry), StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        for (String line : text.split("\r?\n")) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static class OptimizedFrame {
+        final byte[] bytes;
+        final String trimLine;
+        final long pixelsBefore;
+        final long pixelsAfter;
+
+        OptimizedFrame(byte[] bytes, String trimLine, long pixelsBefore, long pixelsAfter) {
+            this.bytes = bytes;
+            this.trimLine = trimLine;
+            this.pixelsBefore = pixelsBefore;
+            this.pixelsAfter = pixelsAfter;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+    }
+}
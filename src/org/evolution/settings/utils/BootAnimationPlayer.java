@@ -0,0 +1,368 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+/**
+ * Streams boot animation frames into an {@link ImageView}.
+ *
+ * Only a small window of decoded frames is kept around: upcoming frames are decoded in
+ * parallel on {@link BootAnimationUtils#getDecodeExecutor()} while the main thread shows
+ * the current frame, and played frames go back to a {@link BitmapPool} to be decoded
+ * into again, so memory use does not depend on the length of the animation. Frames are
+ * always shown in playlist order, whichever worker finishes first.
+ */
+public class BootAnimationPlayer {
+
+    private static final String TAG = "BootAnimationPlayer";
+
+    private static final int MIN_WINDOW_SIZE = 6;
+    private static final int START_FRAME_COUNT = 2;
+    private static final int MIN_FRAME_DURATION = 1000 / 60;
+    static final long MAX_POOL_BYTES = 16 * 1024 * 1024;
+
+    public interface Listener {
+        void onFirstFrame();
+
+        /**
+         * Called instead of {@link #onFirstFrame} when there is nothing to show: the
+         * playlist is empty or none of its frames could be decoded.
+         */
+        void onNoFrames();
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<Future<Bitmap>> mWindow = new ArrayDeque<>();
+    private final ArrayDeque<BootAnimationUtils.Frame> mWindowFrames = new ArrayDeque<>();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final BitmapPool mBitmapPool = new BitmapPool(MAX_POOL_BYTES);
+    private final ImageView mImageView;
+    private final BootAnimationIndex mIndex;
+    private final List<BootAnimationUtils.Frame> mFrames;
+    private int mWindowSize;
+
+    private volatile boolean mRunning;
+    private boolean mPlaying;
+    private Listener mListener;
+    private int mTargetWidth;
+    private int mTargetHeight;
+    private BitmapMemoryGovernor.Plan mPlan;
+    private BitmapMemoryGovernor mGovernor;
+    private long mFrameBytes;
+    private volatile BootAnimationPreviewCache.Writer mCacheWriter;
+
+    private int mNextIndex;
+    private int mFailedInRow;
+    private Bitmap mShownBitmap;
+    private Bitmap mPreviousBitmap;
+
+    public BootAnimationPlayer(ImageView imageView, BootAnimationIndex index,
+            List<BootAnimationUtils.Frame> frames) {
+        mImageView = imageView;
+        mIndex = index;
+        mFrames = frames;
+        mWindowSize = getMaxWindowSize();
+    }
+
+    private static int getMaxWindowSize() {
+        return Math.max(MIN_WINDOW_SIZE, BootAnimationUtils.getDecodeThreadCount() + 2);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Frames are decoded at the smallest power of two subsample that still covers
+     * the given size.
+     */
+    public void setTargetSize(int width, int height) {
+        mTargetWidth = width;
+        mTargetHeight = height;
+    }
+
+    /**
+     * Fits decoding to the governor's budget: the window, pixel format, pool size and
+     * target size are planned from the frame headers, and the window stops growing while
+     * the frames held would exceed the budget. Reads the zip, so call it off the main
+     * thread, after {@link #setTargetSize} and before {@link #start()}.
+     */
+    public void setMemoryGovernor(BitmapMemoryGovernor governor) {
+        BitmapMemoryGovernor.Plan plan = plan(governor, mIndex, mFrames,
+                mTargetWidth, mTargetHeight);
+        Log.d(TAG, "Decoding with " + plan);
+        mGovernor = governor;
+        mPlan = plan;
+        mWindowSize = plan.windowSize;
+        mFrameBytes = plan.frameBytes;
+        mBitmapPool.setMaxBytes(Math.min(plan.poolBytes, MAX_POOL_BYTES));
+    }
+
+    /**
+     * Plans the given playlist the way {@link #setMemoryGovernor} does.
+     */
+    static BitmapMemoryGovernor.Plan plan(BitmapMemoryGovernor governor,
+            BootAnimationIndex index, List<BootAnimationUtils.Frame> frames,
+            int targetWidth, int targetHeight) {
+        return governor.planBootAnimation(index, frames, targetWidth, targetHeight,
+                START_FRAME_COUNT, getMaxWindowSize());
+    }
+
+    /**
+     * Decodes a frame the way playback does under the given plan.
+     */
+    static Bitmap decodeFrame(ZipFile zipFile, BootAnimationUtils.Frame frame,
+            BitmapMemoryGovernor.Plan plan, BitmapPool pool) {
+        return BootAnimationUtils.decodeFrame(zipFile, frame, plan.targetWidth,
+                plan.targetHeight, plan.getConfig(frame), pool);
+    }
+
+    /**
+     * Decoded frames are also handed to the given writer until the cached preview is
+     * complete. Must be called before {@link #start()}.
+     */
+    public void setCacheWriter(BootAnimationPreviewCache.Writer writer) {
+        mCacheWriter = writer;
+    }
+
+    public void start() {
+        if (mRunning) {
+            return;
+        }
+        if (mFrames.isEmpty()) {
+            closeZipFile();
+            if (mListener != null) {
+                mListener.onNoFrames();
+            }
+            return;
+        }
+        if (mPlan == null) {
+            // Without a governor, decode at the requested size with full alpha.
+            mPlan = new BitmapMemoryGovernor.Plan(mTargetWidth, mTargetHeight,
+                    Bitmap.Config.ARGB_8888, mWindowSize, 0, MAX_POOL_BYTES);
+        }
+        mRunning = true;
+        fillWindow();
+    }
+
+    public void stop() {
+        mRunning = false;
+        mHandler.removeCallbacksAndMessages(null);
+        // Queued decodes return as soon as they run and running ones recycle their result,
+        // only frames that are already decoded have to be released here.
+        for (Future<Bitmap> future : mWindow) {
+            if (future.isDone()) {
+                mBitmapPool.put(getBitmap(future));
+            }
+        }
+        mWindow.clear();
+        mWindowFrames.clear();
+        BootAnimationPreviewCache.Writer writer = mCacheWriter;
+        if (writer != null) {
+            writer.abort();
+            mCacheWriter = null;
+        }
+        if (mInFlight.get() == 0) {
+            closeZipFile();
+        }
+        mBitmapPool.put(mPreviousBitmap);
+        mPreviousBitmap = null;
+        // The shown bitmap is still referenced by the view, leave it to the GC.
+        mShownBitmap = null;
+        mPlaying = false;
+        Log.d(TAG, "Stopped, " + mBitmapPool + (mGovernor != null
+                ? ", peak " + mGovernor.getPeakBytes() + "/" + mGovernor.getBudget() + " bytes"
+                : ""));
+        mBitmapPool.clear();
+    }
+
+    private void fillWindow() {
+        while (mRunning && mWindow.size() < mWindowSize && hasRoomForFrame()) {
+            BootAnimationUtils.Frame frame = mFrames.get(mNextIndex);
+            mNextIndex = (mNextIndex + 1) % mFrames.size();
+            mInFlight.incrementAndGet();
+            mWindow.add(BootAnimationUtils.getDecodeExecutor().submit(() -> decode(frame)));
+            mWindowFrames.add(frame);
+        }
+    }
+
+    /**
+     * Returns whether one more frame fits the memory budget. The window is allowed to
+     * shrink down to a single frame when the plan turns out to be too optimistic.
+     */
+    private boolean hasRoomForFrame() {
+        if (mGovernor == null || mWindow.isEmpty()) {
+            return true;
+        }
+        long liveBytes = getLiveBytes();
+        if (liveBytes + mFrameBytes > mGovernor.getBudget() && mBitmapPool.getBytes() > 0) {
+            mBitmapPool.clear();
+            liveBytes = getLiveBytes();
+        }
+        mGovernor.update(liveBytes);
+        return liveBytes + mFrameBytes <= mGovernor.getBudget();
+    }
+
+    /**
+     * Returns the bytes of every bitmap the player holds: decoded window frames, the shown
+     * and previous frame, and the pool.
+     */
+    private long getLiveBytes() {
+        long bytes = mBitmapPool.getBytes() + getByteCount(mShownBitmap)
+                + getByteCount(mPreviousBitmap);
+        for (Future<Bitmap> future : mWindow) {
+            // Frames still decoding are counted at their estimated size.
+            bytes += future.isDone() ? getByteCount(getBitmap(future)) : mFrameBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * ALPHA_8 frames only hold the gray level of the original frame, draw them as a white
+     * mask over black to get the same picture back.
+     */
+    private Drawable getMaskDrawable(Bitmap mask) {
+        BitmapDrawable frame = new BitmapDrawable(mImageView.getResources(), mask);
+        frame.setTint(Color.WHITE);
+        return new LayerDrawable(new Drawable[] { new ColorDrawable(Color.BLACK), frame });
+    }
+
+    private static long getByteCount(Bitmap bitmap) {
+        return bitmap != null && !bitmap.isRecycled() ? bitmap.getAllocationByteCount() : 0;
+    }
+
+    private Bitmap decode(BootAnimationUtils.Frame frame) {
+        try {
+            if (!mRunning) {
+                return null;
+            }
+            Bitmap bitmap = decodeFrame(mIndex.getZipFile(), frame, mPlan, mBitmapPool);
+            if (bitmap == null) {
+                return null;
+            }
+            if (!mRunning) {
+                // The pool may already have been cleared, so do not hand it back.
+                bitmap.recycle();
+                return null;
+            }
+            BootAnimationPreviewCache.Writer writer = mCacheWriter;
+            if (writer != null && writer.add(frame, bitmap)) {
+                mCacheWriter = null;
+            }
+            return bitmap;
+        } finally {
+            // The last decode to finish after stop() owns closing the zip.
+            if (mInFlight.decrementAndGet() == 0 && !mRunning) {
+                closeZipFile();
+            }
+            mHandler.post(mStartPlayback);
+        }
+    }
+
+    private void closeZipFile() {
+        try {
+            mIndex.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing boot animation", e);
+        }
+    }
+
+    private static Bitmap getBitmap(Future<Bitmap> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(TAG, "Error decoding frame", e);
+        }
+        return null;
+    }
+
+    private final Runnable mStartPlayback = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning || mPlaying) {
+                return;
+            }
+            // Start as soon as the opening frames are decoded, the rest of the window keeps
+            // decoding while they are shown.
+            int ready = 0;
+            for (Future<Bitmap> future : mWindow) {
+                if (!future.isDone() || ++ready >= START_FRAME_COUNT) {
+                    break;
+                }
+            }
+            if (ready < Math.min(START_FRAME_COUNT, mWindow.size())) {
+                return;
+            }
+            mPlaying = true;
+            mShowNextFrame.run();
+        }
+    };
+
+    private final Runnable mShowNextFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            Future<Bitmap> future = mWindow.peek();
+            if (future == null || !future.isDone()) {
+                // Decoders fell behind, keep the current frame up a little longer.
+                mHandler.postDelayed(this, MIN_FRAME_DURATION);
+                return;
+            }
+            mWindow.poll();
+            BootAnimationUtils.Frame frame = mWindowFrames.poll();
+            Bitmap bitmap = getBitmap(future);
+            fillWindow();
+            if (bitmap == null) {
+                if (++mFailedInRow >= mFrames.size()) {
+                    Log.w(TAG, "No decodable frames, stopping playback");
+                    stop();
+                    if (mListener != null) {
+                        mListener.onNoFrames();
+                    }
+                    return;
+                }
+                mHandler.post(this);
+                return;
+            }
+            mFailedInRow = 0;
+            if (bitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+                mImageView.setImageDrawable(getMaskDrawable(bitmap));
+            } else {
+                mImageView.setImageBitmap(bitmap);
+            }
+            // The previous frame may still be in flight to the render thread, so release
+            // frames one step late.
+            if (mPreviousBitmap != null) {
+                mBitmapPool.put(mPreviousBitmap);
+            } else if (mShownBitmap == null && mListener != null) {
+                mListener.onFirstFrame();
+            }
+            mPreviousBitmap = mShownBitmap;
+            mShownBitmap = bitmap;
+            mHandler.postDelayed(this, Math.max(frame.duration, MIN_FRAME_DURATION));
+        }
+    };
+}
@@ -0,0 +1,378 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Keeps downsampled copies of boot animations in the app cache dir so the preview does not
+ * have to decode the full size zip every time it is shown.
+ *
+ * A cached preview is itself a boot animation zip: the original desc.txt plus every played
+ * frame, already trimmed and scaled, stored as WebP, or as grayscale PNG for masks. Runs of
+ * identical frames keep one entry per original frame so they are held for as long as in
+ * the original. Files are named after the source path, size and modification time, so
+ * replacing a zip makes its old preview unreachable.
+ *
+ * Short catalog loops, which only hold the opening frames, are kept in a separate
+ * directory so they are never mistaken for a full preview.
+ */
+public class BootAnimationPreviewCache {
+
+    private static final String TAG = "BootAnimationPreviewCache";
+
+    private static final String CACHE_DIR = "bootanimation_preview";
+    private static final String LOOP_CACHE_DIR = "bootanimation_catalog";
+    private static final String FRAME_EXTENSION = ".webp";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int FRAME_QUALITY = 85;
+
+    private static final byte[] PNG_SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+    private static final int PNG_IHDR = 0x49484452;
+    private static final int PNG_IDAT = 0x49444154;
+    private static final int PNG_IEND = 0x49454e44;
+    private static final int PNG_COLOR_GRAY = 0;
+    private static final byte PNG_FILTER_SUB = 1;
+
+    /**
+     * Returns a cached preview of the given zip with frames at least as large as the
+     * requested size, or null if there is none.
+     */
+    public static File get(Context context, File source, int width, int height) {
+        return get(getCacheDir(context, CACHE_DIR), source, width, height);
+    }
+
+    /**
+     * Like {@link #get}, but for the short loops written by {@link #newLoopWriter}.
+     */
+    public static File getLoop(Context context, File source, int width, int height) {
+        return get(getCacheDir(context, LOOP_CACHE_DIR), source, width, height);
+    }
+
+    private static File get(File dir, File source, int width, int height) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return null;
+        }
+        String prefix = getKey(source) + "_";
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(prefix) || name.endsWith(TMP_SUFFIX)) {
+                continue;
+            }
+            int[] size = parseSize(name);
+            if (size != null && size[0] >= width && size[1] >= height) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops every cached preview and loop of the zip at the given path.
+     */
+    public static void invalidate(Context context, String path) {
+        String prefix = getPathKey(path) + "_";
+        deleteMatching(getCacheDir(context, CACHE_DIR), prefix, null);
+        deleteMatching(getCacheDir(context, LOOP_CACHE_DIR), prefix, null);
+    }
+
+    /**
+     * Starts a new cached preview for the given zip. Previews of older versions of the
+     * same path are removed.
+     */
+    public static Writer newWriter(Context context, File source, BootAnimationIndex index,
+            List<BootAnimationUtils.Frame> playlist, int width, int height) {
+        return newWriter(getCacheDir(context, CACHE_DIR), source, index, playlist,
+                width, height);
+    }
+
+    /**
+     * Starts a new cached catalog loop for the given zip, holding only the frames of the
+     * given playlist.
+     */
+    public static Writer newLoopWriter(Context context, File source, BootAnimationIndex index,
+            List<BootAnimationUtils.Frame> playlist, int width, int height) {
+        return newWriter(getCacheDir(context, LOOP_CACHE_DIR), source, index, playlist,
+                width, height);
+    }
+
+    private static Writer newWriter(File dir, File source, BootAnimationIndex index,
+            List<BootAnimationUtils.Frame> playlist, int width, int height) {
+        // Other sizes of the current version stay, they may still be in use.
+        String key = getKey(source);
+        deleteMatching(dir, getPathKey(source.getAbsolutePath()) + "_", key + "_");
+        File file = new File(dir, key + "_" + width + "x" + height + ".zip");
+        try {
+            return new Writer(file, index, playlist);
+        } catch (IOException e) {
+            Log.e(TAG, "Error creating preview cache " + file, e);
+        }
+        return null;
+    }
+
+    private static void deleteMatching(File dir, String prefix, String keepPrefix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && (keepPrefix == null || !name.startsWith(keepPrefix))
+                    && !file.delete()) {
+                Log.w(TAG, "Failed to delete " + file);
+            }
+        }
+    }
+
+    private static File getCacheDir(Context context, String name) {
+        File dir = new File(context.getCacheDir(), name);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Failed to create " + dir);
+        }
+        return dir;
+    }
+
+    private static String getPathKey(String path) {
+        return Integer.toHexString(path.hashCode());
+    }
+
+    private static String getKey(File source) {
+        return getPathKey(source.getAbsolutePath()) + "_" + source.length()
+                + "_" + source.lastModified();
+    }
+
+    private static int[] parseSize(String name) {
+        int start = name.lastIndexOf('_') + 1;
+        int end = name.lastIndexOf('.');
+        int separator = name.indexOf('x', start);
+        if (start <= 0 || end < 0 || separator < 0 || separator > end) {
+            return null;
+        }
+        try {
+            return new int[] {
+                Integer.parseInt(name.substring(start, separator)),
+                Integer.parseInt(name.substring(separator + 1, end))
+            };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Collects decoded frames as they are played and commits the preview once every frame
+     * of the playlist has been written. Frames may be added from several decoder threads.
+     */
+    public static class Writer {
+        private final File mFile;
+        private final File mTmpFile;
+        private final ZipOutputStream mOut;
+        private final Set<String> mUnclaimed = new HashSet<>();
+        private final CRC32 mCrc = new CRC32();
+        private int mRemaining;
+        private boolean mClosed;
+
+        private Writer(File file, BootAnimationIndex source,
+                List<BootAnimationUtils.Frame> playlist)
+                throws IOException {
+            mFile = file;
+            mTmpFile = new File(file.getPath() + TMP_SUFFIX);
+            mOut = new ZipOutputStream(new FileOutputStream(mTmpFile));
+            for (BootAnimationUtils.Frame frame : playlist) {
+                mUnclaimed.add(frame.entry.getName());
+            }
+            mRemaining = mUnclaimed.size();
+            try (InputStream is = source.getZipFile().getInputStream(source.getDescEntry())) {
+                ByteArrayOutputStream desc = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = is.read(buffer)) > 0) {
+                    desc.write(buffer, 0, length);
+                }
+                putStoredEntry(BootAnimationDescriptor.DESC_FILE, desc);
+            } catch (IOException | RuntimeException e) {
+                abort();
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+        }
+
+        /**
+         * Adds a decoded frame if it is not in the preview yet. Returns true once the
+         * preview is complete or aborted, after which the writer must not be used.
+         */
+        public boolean add(BootAnimationUtils.Frame frame, Bitmap bitmap) {
+            synchronized (this) {
+                if (mClosed || !mUnclaimed.remove(frame.entry.getName())) {
+                    return mClosed;
+                }
+            }
+            // Encode outside the lock so other decoders can keep going.
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            boolean encoded = bitmap.getConfig() == Bitmap.Config.ALPHA_8
+                    ? encodeMask(bitmap, data)
+                    : bitmap.compress(Bitmap.CompressFormat.WEBP_LOSSY, FRAME_QUALITY, data);
+            synchronized (this) {
+                if (mClosed) {
+                    return true;
+                }
+                if (!encoded) {
+                    Log.e(TAG, "Error encoding " + frame.entry.getName() + " for " + mFile);
+                    abort();
+                    return true;
+                }
+                try {
+                    // A zip cannot point two entries at the same data, so a held frame is
+                    // stored once per original entry. Reading the preview back coalesces
+                    // the run again.
+                    for (ZipEntry entry : frame.entries) {
+                        putStoredEntry(getCachedEntryName(entry.getName()), data);
+                    }
+                    if (--mRemaining == 0) {
+                        commit();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Error writing preview cache " + mFile, e);
+                    abort();
+                }
+                return mClosed;
+            }
+        }
+
+        /**
+         * Discards a preview that has not been completed yet.
+         */
+        public synchronized void abort() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // Ignored, the file is deleted anyway
+            }
+            mTmpFile.delete();
+        }
+
+        private void commit() throws IOException {
+            mOut.close();
+            mClosed = true;
+            if (!mTmpFile.renameTo(mFile)) {
+                mTmpFile.delete();
+                throw new IOException("Failed to rename " + mTmpFile);
+            }
+        }
+
+        private void putStoredEntry(String name, ByteArrayOutputStream data)
+                throws IOException {
+            mCrc.reset();
+            mCrc.update(data.toByteArray(), 0, data.size());
+            ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.size());
+            entry.setCompressedSize(data.size());
+            entry.setCrc(mCrc.getValue());
+            mOut.putNextEntry(entry);
+            data.writeTo(mOut);
+            mOut.closeEntry();
+        }
+
+        /**
+         * Writes a mask as an opaque 8-bit grayscale PNG, so it is sniffed as ALPHA_8 and
+         * drawn as a mask again when read back. Bitmap.compress cannot be used here: it
+         * writes ALPHA_8 as gray with alpha, which reads back as a black frame.
+         */
+        private static boolean encodeMask(Bitmap mask, ByteArrayOutputStream data) {
+            int width = mask.getWidth();
+            int height = mask.getHeight();
+            int rowBytes = mask.getRowBytes();
+            ByteBuffer pixels = ByteBuffer.allocate(mask.getByteCount());
+            mask.copyPixelsToBuffer(pixels);
+            byte[] buffer = pixels.array();
+            try {
+                DataOutputStream out = new DataOutputStream(data);
+                out.write(PNG_SIGNATURE);
+
+                ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+                DataOutputStream ihdr = new DataOutputStream(header);
+                ihdr.writeInt(width);
+                ihdr.writeInt(height);
+                ihdr.writeByte(8); // Bit depth
+                ihdr.writeByte(PNG_COLOR_GRAY);
+                ihdr.writeByte(0); // Deflate
+                ihdr.writeByte(0); // Adaptive filtering
+                ihdr.writeByte(0); // Not interlaced
+                writePngChunk(out, PNG_IHDR, header);
+
+                // Every row uses the Sub filter, which suits the flat areas of a mask.
+                ByteArrayOutputStream image = new ByteArrayOutputStream();
+                try (DeflaterOutputStream idat = new DeflaterOutputStream(image)) {
+                    byte[] row = new byte[width + 1];
+                    row[0] = PNG_FILTER_SUB;
+                    for (int y = 0; y < height; y++) {
+                        int offset = y * rowBytes;
+                        row[1] = buffer[offset];
+                        for (int x = 1; x < width; x++) {
+                            row[x + 1] = (byte) (buffer[offset + x] - buffer[offset + x - 1]);
+                        }
+                        idat.write(row);
+                    }
+                }
+                writePngChunk(out, PNG_IDAT, image);
+                writePngChunk(out, PNG_IEND, new ByteArrayOutputStream(0));
+                out.flush();
+            } catch (IOException e) {
+                return false;
+            }
+            // Check the round trip, a mask read back in any other format would not show.
+            try (InputStream is = new ByteArrayInputStream(data.toByteArray())) {
+                return BootAnimationUtils.getFrameConfig(is) == Bitmap.Config.ALPHA_8;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private static void writePngChunk(DataOutputStream out, int type,
+                ByteArrayOutputStream chunk) throws IOException {
+            CRC32 crc = new CRC32();
+            byte[] typeBytes = {
+                (byte) (type >>> 24), (byte) (type >>> 16), (byte) (type >>> 8), (byte) type
+            };
+            crc.update(typeBytes);
+            crc.update(chunk.toByteArray(), 0, chunk.size());
+            out.writeInt(chunk.size());
+            out.write(typeBytes);
+            chunk.writeTo(out);
+            out.writeInt((int) crc.getValue());
+        }
+
+        private static String getCachedEntryName(String entryName) {
+            int extension = entryName.lastIndexOf('.');
+            return (extension > entryName.lastIndexOf('/')
+                    ? entryName.substring(0, extension) : entryName) + FRAME_EXTENSION;
+        }
+    }
+}
@@ -18,29 +18,69 @@ package org.evolution.settings.utils;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Rect;
-import android.graphics.drawable.AnimationDrawable;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
-import android.graphics.drawable.AnimatedImageDrawable;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
 import android.os.SystemProperties;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.File;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.regex.Pattern;
 
 public class BootAnimationUtils {
 
     private static final String TAG = "BootAnimationUtils";
-    private static final int DEFAULT_FRAME_DURATION = 1000 / 30;
+    private static final int PREVIEW_LOOP_COUNT = 2;
+    private static final int DECODE_THREAD_COUNT =
+            Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final long DECODE_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    private static final int PNG_MAGIC = 0x89504e47;
+    private static final int PNG_MAGIC_END = 0x0d0a1a0a;
+    private static final int PNG_IHDR = 0x49484452;
+    private static final int PNG_TRNS = 0x74524e53;
+    private static final int PNG_IDAT = 0x49444154;
+    private static final int PNG_IEND = 0x49454e44;
+    private static final int PNG_COLOR_GRAY = 0;
+    private static final int PNG_COLOR_RGB = 2;
+    private static final int PNG_COLOR_PALETTE = 3;
+    private static final int MAX_PNG_HEADER_CHUNKS = 32;
+    private static final int JPEG_MAGIC = 0xffd8ff;
+    private static final int RIFF_MAGIC = 0x52494646;
+    private static final int WEBP_MAGIC = 0x57454250;
+    private static final int WEBP_VP8 = 0x56503820;
+    private static final int WEBP_VP8L = 0x5650384c;
+    private static final int WEBP_VP8X = 0x56503858;
+
+    private static ThreadPoolExecutor sDecodeExecutor;
 
     private static final String[] BOOT_ANIMATION_FILES = {
         "/product/media/bootanimation.zip",
@@ -59,104 +99,427 @@ public class BootAnimationUtils {
         "/data/misc/bootanim/bootanimation.zip",
     };
 
-    public static AnimationDrawable getBootAnimationFrames(Context context) {
-        AnimationDrawable animationDrawable = new AnimationDrawable();
-        String selectedBootAnimation = getSelectedBootAnimation();
-        if (selectedBootAnimation != null) {
-            File bootAnimationFile = new File(selectedBootAnimation);
-            if (bootAnimationFile.exists()) {
-                try (ZipFile zipFile = new ZipFile(bootAnimationFile)) {
-                    int frameDuration = getFrameDuration(zipFile);
-                    int partCount = getPartCount(zipFile);
-                    if (partCount == 0) {
-                        List<Rect> trimData = loadTrimData(zipFile, "part0");
-                        loadFramesFromPart(context, zipFile, animationDrawable, "part0", frameDuration, trimData);
-                    } else {
-                        for (int i = 0; i < partCount; i++) {
-                            String partName = "part" + i;
-                            List<Rect> trimData = loadTrimData(zipFile, partName);
-                            loadFramesFromPart(context, zipFile, animationDrawable, partName, frameDuration, trimData);
-                        }
-                    }
-                    animationDrawable.setOneShot(false);
-                } catch (Exception e) {
-                    Log.e(TAG, "Error loading boot animation frames", e);
-                }
-            }
+    /**
+     * Shared pool used to decode boot animation frames, with one background priority
+     * worker per core. Idle workers exit after a few seconds.
+     */
+    public static synchronized ExecutorService getDecodeExecutor() {
+        if (sDecodeExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            sDecodeExecutor = new ThreadPoolExecutor(DECODE_THREAD_COUNT, DECODE_THREAD_COUNT,
+                    DECODE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, TAG + "#" + threadCount.incrementAndGet()));
+            sDecodeExecutor.allowCoreThreadTimeOut(true);
         }
-        return animationDrawable;
+        return sDecodeExecutor;
     }
 
-    public static int getBootAnimStyle() {
-        return SystemProperties.getInt("persist.sys.bootanimation_style", 0);
+    public static int getDecodeThreadCount() {
+        return DECODE_THREAD_COUNT;
     }
 
-    public static String getSelectedBootAnimation() {
-        final int style = getBootAnimStyle();
-        if (style >= 0 && style < BOOT_ANIMATION_FILES.length) {
-            return BOOT_ANIMATION_FILES[style];
+    public static class Frame {
+        public final ZipEntry entry;
+        /**
+         * Every entry this frame stands for, in play order. Runs of identical entries are
+         * played as one frame, this keeps the whole run.
+         */
+        public final List<ZipEntry> entries;
+        public final Rect trim;
+        /** The animation size from desc.txt, which trim offsets are relative to. */
+        public final int canvasWidth;
+        public final int canvasHeight;
+        public final int duration;
+
+        Frame(ZipEntry entry, Rect trim, int canvasWidth, int canvasHeight, int duration) {
+            this(entry, Collections.singletonList(entry), trim, canvasWidth, canvasHeight,
+                    duration);
         }
-        return null;
+
+        private Frame(ZipEntry entry, List<ZipEntry> entries, Rect trim, int canvasWidth,
+                int canvasHeight, int duration) {
+            this.entry = entry;
+            this.entries = entries;
+            this.trim = trim;
+            this.canvasWidth = canvasWidth;
+            this.canvasHeight = canvasHeight;
+            this.duration = duration;
+        }
+
+        Frame withDuration(int duration) {
+            return new Frame(entry, entries, trim, canvasWidth, canvasHeight, duration);
+        }
+
+        /**
+         * Returns whether a frame of the given size was already trimmed and has to be drawn
+         * at its trim offset on a canvas of the animation size, as bootanimation does.
+         */
+        public boolean isPlaced(int width, int height) {
+            return trim != null && trim.width() == width && trim.height() == height
+                    && canvasWidth > 0 && canvasHeight > 0
+                    && !trim.equals(new Rect(0, 0, canvasWidth, canvasHeight));
+        }
+
+        /**
+         * Returns this frame, also standing for the given identical entry shown after it.
+         */
+        Frame withEntry(ZipEntry same, int duration) {
+            List<ZipEntry> run = new ArrayList<>(entries);
+            run.add(same);
+            return new Frame(entry, Collections.unmodifiableList(run), trim, canvasWidth,
+                    canvasHeight, this.duration + duration);
+        }
+    }
+
+    /**
+     * Builds the frame sequence the preview plays, following bootanimation's playback
+     * rules: every part is repeated COUNT times with PAUSE frames held after each
+     * repetition. Parts that loop until boot completes are played
+     * {@link #PREVIEW_LOOP_COUNT} times, after which boot is treated as complete and
+     * only the remaining 'c' parts are played. Each part's frames are only listed once,
+     * repetitions reuse them.
+     */
+    public static List<Frame> getBootAnimationFrameList(BootAnimationIndex index) {
+        return getBootAnimationFrameList(index, null);
     }
 
-    private static int getFrameDuration(ZipFile zipFile) {
+    /**
+     * Like {@link #getBootAnimationFrameList(BootAnimationIndex)}, checking the signal
+     * between entries.
+     *
+     * @throws OperationCanceledException if the signal is cancelled while loading
+     */
+    public static List<Frame> getBootAnimationFrameList(BootAnimationIndex index,
+            CancellationSignal signal) {
+        List<Frame> playlist = new ArrayList<>();
+        BootAnimationDescriptor descriptor = index.getDescriptor();
+        if (descriptor == null) {
+            return playlist;
+        }
+        int frameDuration = descriptor.getFrameDuration();
+        Map<String, List<Frame>> partFrames = new HashMap<>();
+        boolean bootCompleted = false;
+        for (BootAnimationDescriptor.Part part : descriptor.parts) {
+            if (bootCompleted && !part.playUntilComplete()) {
+                continue;
+            }
+            List<Frame> frames = partFrames.get(part.path);
+            if (frames == null) {
+                List<Rect> trimData = loadTrimData(index, part.path);
+                frames = new ArrayList<>();
+                loadFramesFromPart(index, frames, part.path, frameDuration, trimData, signal);
+                partFrames.put(part.path, frames);
+            }
+            if (frames.isEmpty()) {
+                continue;
+            }
+            Frame lastFrame = frames.get(frames.size() - 1);
+            Frame pausedLastFrame = part.pause > 0
+                    ? lastFrame.withDuration(lastFrame.duration + frameDuration * part.pause)
+                    : lastFrame;
+            int repetitions = part.count > 0 ? part.count : PREVIEW_LOOP_COUNT;
+            for (int r = 0; r < repetitions; r++) {
+                playlist.addAll(frames.subList(0, frames.size() - 1));
+                playlist.add(pausedLastFrame);
+            }
+            if (part.count == 0) {
+                bootCompleted = true;
+            }
+        }
+        return playlist;
+    }
+
+    /**
+     * Decodes a frame straight to roughly the requested size. The bounds are read first so
+     * the frame can be subsampled while decoding instead of being scaled down afterwards.
+     * A non-positive size decodes at full resolution. Frames larger than their trim rect are
+     * decoded with a {@link BitmapRegionDecoder}, so only the trimmed area is decompressed.
+     * Frames that already have the trimmed size, as written by bootanimation tools and
+     * BootAnimationOptimizer, are drawn at their offset on a canvas of the desc.txt size.
+     * When a pool is given, the frame is decoded into a pooled bitmap if one fits.
+     */
+    public static Bitmap decodeFrame(ZipFile zipFile, Frame frame, int reqWidth, int reqHeight,
+            BitmapPool pool) {
+        return decodeFrame(zipFile, frame, reqWidth, reqHeight, Bitmap.Config.ARGB_8888, pool);
+    }
+
+    /**
+     * Like {@link #decodeFrame(ZipFile, Frame, int, int, BitmapPool)}, preferring the given
+     * pixel format. Frames with alpha are still decoded with alpha, and ALPHA_8 only applies
+     * to grayscale frames, whose gray level becomes the alpha.
+     */
+    public static Bitmap decodeFrame(ZipFile zipFile, Frame frame, int reqWidth, int reqHeight,
+            Bitmap.Config config, BitmapPool pool) {
+        ZipEntry entry = frame.entry;
         try {
-            ZipEntry descEntry = zipFile.getEntry("desc.txt");
-            if (descEntry != null) {
-                InputStream is = zipFile.getInputStream(descEntry);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-                String line = reader.readLine();
-                if (line != null) {
-                    String[] parts = line.split(" ");
-                    if (parts.length >= 3) {
-                        int fps = Integer.parseInt(parts[2]);
-                        return 1000 / fps;
-                    }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            try (InputStream is = zipFile.getInputStream(entry)) {
+                BitmapFactory.decodeStream(is, null, options);
+            }
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            Rect region = null;
+            boolean placed = frame.isPlaced(options.outWidth, options.outHeight);
+            if (frame.trim != null && !placed && (frame.trim.width() != options.outWidth
+                    || frame.trim.height() != options.outHeight)) {
+                region = new Rect(frame.trim);
+                if (!region.intersect(0, 0, options.outWidth, options.outHeight)) {
+                    region = null;
+                }
+            }
+            int decodedWidth = region != null ? region.width() : options.outWidth;
+            int decodedHeight = region != null ? region.height() : options.outHeight;
+            int sampleSize = calculateInSampleSize(
+                    placed ? frame.canvasWidth : decodedWidth,
+                    placed ? frame.canvasHeight : decodedHeight, reqWidth, reqHeight);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            if (pool != null) {
+                options.inMutable = true;
+                options.inBitmap = pool.get(divideRoundingUp(decodedWidth, sampleSize),
+                        divideRoundingUp(decodedHeight, sampleSize), config);
+            }
+            Bitmap bitmap;
+            try {
+                bitmap = decode(zipFile, entry, region, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
                 }
+                // The pooled bitmap could not be reused, decode into a new one instead.
+                pool.put(options.inBitmap);
+                options.inBitmap = null;
+                bitmap = decode(zipFile, entry, region, options);
             }
+            return placed && bitmap != null ? place(frame, bitmap, sampleSize, pool) : bitmap;
         } catch (Exception e) {
-            Log.e(TAG, "Error reading desc.txt", e);
+            Log.e(TAG, "Error decoding frame " + frame.entry.getName(), e);
         }
-        return DEFAULT_FRAME_DURATION;
+        return null;
     }
 
-    private static int getPartCount(ZipFile zipFile) {
-        int partCount = 0;
-        try {
-            ZipEntry descEntry = zipFile.getEntry("desc.txt");
-            if (descEntry != null) {
-                InputStream is = zipFile.getInputStream(descEntry);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.contains("part")) {
-                        partCount++;
-                    }
+    /**
+     * Draws a trimmed frame at its offset on a cleared canvas of the animation size, scaled
+     * down by the sample size it was decoded with. The trimmed bitmap goes back to the pool.
+     */
+    private static Bitmap place(Frame frame, Bitmap trimmed, int sampleSize,
+            BitmapPool pool) {
+        int width = divideRoundingUp(frame.canvasWidth, sampleSize);
+        int height = divideRoundingUp(frame.canvasHeight, sampleSize);
+        Bitmap.Config config = trimmed.getConfig() != null
+                ? trimmed.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = pool != null ? pool.get(width, height, config) : null;
+        if (bitmap != null) {
+            try {
+                bitmap.reconfigure(width, height, config);
+            } catch (IllegalArgumentException e) {
+                pool.put(bitmap);
+                bitmap = null;
+            }
+        }
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        new Canvas(bitmap).drawBitmap(trimmed, frame.trim.left / sampleSize,
+                frame.trim.top / sampleSize, null);
+        if (pool != null) {
+            pool.put(trimmed);
+        } else {
+            trimmed.recycle();
+        }
+        return bitmap;
+    }
+
+    private static Bitmap decode(ZipFile zipFile, ZipEntry entry, Rect region,
+            BitmapFactory.Options options) throws IOException {
+        try (InputStream is = zipFile.getInputStream(entry)) {
+            if (region == null) {
+                return BitmapFactory.decodeStream(is, null, options);
+            }
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(is);
+            try {
+                return decoder.decodeRegion(region, options);
+            } finally {
+                decoder.recycle();
+            }
+        }
+    }
+
+    /**
+     * Returns the cheapest pixel format that shows a frame without visible loss, sniffed
+     * from its file header: ALPHA_8 for opaque grayscale PNGs, to be drawn as a white
+     * tinted mask over black, RGB_565 for other opaque PNGs, JPEGs and lossy WebPs, and
+     * ARGB_8888 for anything with alpha or that cannot be read.
+     */
+    public static Bitmap.Config getFrameConfig(ZipFile zipFile, ZipEntry entry) {
+        try (InputStream is = zipFile.getInputStream(entry)) {
+            return getFrameConfig(is);
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading header of " + entry.getName(), e);
+        }
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Like {@link #getFrameConfig(ZipFile, ZipEntry)}, for an encoded frame read from the
+     * given stream, which is left open.
+     */
+    public static Bitmap.Config getFrameConfig(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is, 64));
+        int magic = in.readInt();
+        if (magic == PNG_MAGIC && in.readInt() == PNG_MAGIC_END) {
+            return getPngConfig(in);
+        } else if ((magic >>> 8) == JPEG_MAGIC) {
+            return Bitmap.Config.RGB_565;
+        } else if (magic == RIFF_MAGIC) {
+            in.readInt();
+            if (in.readInt() == WEBP_MAGIC) {
+                return getWebpConfig(in);
+            }
+        }
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    private static Bitmap.Config getPngConfig(DataInputStream in) throws IOException {
+        int colorType = -1;
+        // IHDR comes first, a tRNS chunk adding alpha has to come before the first IDAT.
+        for (int i = 0; i < MAX_PNG_HEADER_CHUNKS; i++) {
+            int length = in.readInt();
+            int type = in.readInt();
+            if (length < 0 || type == PNG_IDAT || type == PNG_IEND) {
+                break;
+            } else if (type == PNG_TRNS) {
+                return Bitmap.Config.ARGB_8888;
+            } else if (type == PNG_IHDR && length >= 10) {
+                skipFully(in, 9);
+                colorType = in.readUnsignedByte();
+                skipFully(in, length - 10 + 4);
+            } else {
+                skipFully(in, length + 4L);
+            }
+        }
+        switch (colorType) {
+            case PNG_COLOR_GRAY:
+                return Bitmap.Config.ALPHA_8;
+            case PNG_COLOR_RGB:
+            case PNG_COLOR_PALETTE:
+                return Bitmap.Config.RGB_565;
+            default:
+                return Bitmap.Config.ARGB_8888;
+        }
+    }
+
+    private static Bitmap.Config getWebpConfig(DataInputStream in) throws IOException {
+        int chunk = in.readInt();
+        in.readInt();
+        if (chunk == WEBP_VP8) {
+            return Bitmap.Config.RGB_565;
+        } else if (chunk == WEBP_VP8L) {
+            // Signature byte, then 14 bits of width, 14 bits of height and the alpha bit.
+            in.readUnsignedByte();
+            int bits = Integer.reverseBytes(in.readInt());
+            return (bits & (1 << 28)) == 0 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        } else if (chunk == WEBP_VP8X) {
+            return (in.readUnsignedByte() & 0x10) == 0
+                    ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        }
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
                 }
+                skipped = 1;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error reading desc.txt", e);
+            count -= skipped;
+        }
+    }
+
+    private static int divideRoundingUp(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Opens the zip behind a content URI in place: the central directory and frames are
+     * read straight from the provider's file through /proc/self/fd, nothing is copied.
+     *
+     * @throws IOException if the URI cannot be opened or is only available as a pipe,
+     *         which cannot be seeked
+     */
+    public static ZipFile openZipFile(Context context, Uri uri) throws IOException {
+        try (ParcelFileDescriptor pfd =
+                context.getContentResolver().openFileDescriptor(uri, "r")) {
+            if (pfd == null) {
+                throw new FileNotFoundException("No file for " + uri);
+            }
+            try {
+                Os.lseek(pfd.getFileDescriptor(), 0, OsConstants.SEEK_SET);
+            } catch (ErrnoException e) {
+                throw new IOException(uri + " is not seekable", e);
+            }
+            // ZipFile opens its own descriptor, the original one can be closed afterwards.
+            return new ZipFile("/proc/self/fd/" + pfd.getFd());
+        } catch (SecurityException e) {
+            throw new IOException(e);
         }
-        return partCount - 1;
     }
 
-    private static List<Rect> loadTrimData(ZipFile zipFile, String partName) {
+    /**
+     * Returns the largest power of two sample size that keeps both dimensions at or above
+     * the requested size, so a centerCrop preview never has to scale the frame up.
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while ((width / (inSampleSize * 2)) >= reqWidth
+                && (height / (inSampleSize * 2)) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    public static int getBootAnimStyle() {
+        return SystemProperties.getInt("persist.sys.bootanimation_style", 0);
+    }
+
+    public static String getSelectedBootAnimation() {
+        final int style = getBootAnimStyle();
+        if (style >= 0 && style < BOOT_ANIMATION_FILES.length) {
+            return BOOT_ANIMATION_FILES[style];
+        }
+        return null;
+    }
+
+    private static List<Rect> loadTrimData(BootAnimationIndex index, String partName) {
         List<Rect> trimRects = new ArrayList<>();
-        try {
-            ZipEntry trimEntry = zipFile.getEntry(partName + "/trim.txt");
-            if (trimEntry != null) {
-                InputStream is = zipFile.getInputStream(trimEntry);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] parts = line.split("[x+]");
-                    if (parts.length == 4) {
-                        int width = Integer.parseInt(parts[0]);
-                        int height = Integer.parseInt(parts[1]);
-                        int x = Integer.parseInt(parts[2]);
-                        int y = Integer.parseInt(parts[3]);
-                        trimRects.add(new Rect(x, y, x + width, y + height));
-                    }
+        ZipEntry trimEntry = index.getTrimEntry(partName);
+        if (trimEntry == null) {
+            return trimRects;
+        }
+        try (InputStream is = index.getZipFile().getInputStream(trimEntry)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("[x+]");
+                if (parts.length == 4) {
+                    int width = Integer.parseInt(parts[0]);
+                    int height = Integer.parseInt(parts[1]);
+                    int x = Integer.parseInt(parts[2]);
+                    int y = Integer.parseInt(parts[3]);
+                    trimRects.add(new Rect(x, y, x + width, y + height));
                 }
             }
         } catch (Exception e) {
@@ -165,37 +528,37 @@ public class BootAnimationUtils {
         return trimRects;
     }
 
-    private static void loadFramesFromPart(Context context, ZipFile zipFile, 
-        AnimationDrawable animationDrawable, String partName, int frameDuration, List<Rect> trimData) {
-        try {
-            Pattern pngPattern = Pattern.compile(partName + "/.*\\.png$");
-            Pattern jpgPattern = Pattern.compile(partName + "/.*\\.jpg$");
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            int frameIndex = 0;
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                String entryName = entry.getName();
-                if (pngPattern.matcher(entryName).matches() || jpgPattern.matcher(entryName).matches()) {
-                    try (InputStream is = zipFile.getInputStream(entry)) {
-                        Bitmap bitmap = BitmapFactory.decodeStream(is);
-                        if (frameIndex < trimData.size()) {
-                            Rect trimRect = trimData.get(frameIndex);
-                            int adjustedWidth = Math.min(trimRect.width(), bitmap.getWidth() - trimRect.left);
-                            int adjustedHeight = Math.min(trimRect.height(), bitmap.getHeight() - trimRect.top);
-                            if (adjustedWidth > 0 && adjustedHeight > 0) {
-                                bitmap = Bitmap.createBitmap(bitmap, trimRect.left, trimRect.top, adjustedWidth, adjustedHeight);
-                            } else {
-                                //Log.w(TAG, "Trim rectangle exceeds bitmap dimensions, skipping trim for frame " + frameIndex);
-                            }
-                        }
-                        Drawable frame = new BitmapDrawable(context.getResources(), bitmap);
-                        animationDrawable.addFrame(frame, frameDuration);
-                        frameIndex++;
-                    }
-                }
+    /**
+     * Adds the frames of a part. Runs of byte-identical entries, as found by their CRC and
+     * size in the central directory, become a single frame shown for the whole run.
+     */
+    private static void loadFramesFromPart(BootAnimationIndex index, List<Frame> frames,
+            String partName, int frameDuration, List<Rect> trimData, CancellationSignal signal) {
+        BootAnimationDescriptor descriptor = index.getDescriptor();
+        int canvasWidth = descriptor != null ? descriptor.width : 0;
+        int canvasHeight = descriptor != null ? descriptor.height : 0;
+        int frameIndex = 0;
+        Frame previous = null;
+        for (ZipEntry entry : index.getFrames(partName)) {
+            if (signal != null) {
+                signal.throwIfCanceled();
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading frames from " + partName, e);
+            Rect trimRect = frameIndex < trimData.size() ? trimData.get(frameIndex) : null;
+            frameIndex++;
+            if (previous != null && isSameFrame(previous, entry, trimRect)) {
+                previous = previous.withEntry(entry, frameDuration);
+                frames.set(frames.size() - 1, previous);
+                continue;
+            }
+            previous = new Frame(entry, trimRect, canvasWidth, canvasHeight, frameDuration);
+            frames.add(previous);
         }
     }
+
+    private static boolean isSameFrame(Frame frame, ZipEntry entry, Rect trimRect) {
+        ZipEntry other = frame.entry;
+        return entry.getSize() >= 0 && entry.getCrc() != -1
+                && entry.getSize() == other.getSize() && entry.getCrc() == other.getCrc()
+                && Objects.equals(trimRect, frame.trim);
+    }
 }
@@ -0,0 +1,369 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import static android.os.UserHandle.CURRENT;
+import static android.os.UserHandle.USER_CURRENT;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.om.OverlayInfo;
+import android.content.om.OverlayManager;
+import android.content.om.OverlayManagerTransaction;
+import android.os.SystemProperties;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.evolution.settings.preferences.OverlaySwitchPreference;
+import org.evolution.settings.preferences.SettingsCache;
+import org.evolution.settings.preferences.SettingsRegistry;
+import org.evolution.settings.preferences.SettingsStats;
+import org.evolution.settings.preferences.SystemPropertyBatcher;
+
+/**
+ * Backs up and restores every setting, system property and overlay in
+ * {@link SettingsRegistry}.
+ *
+ * A backup is a small JSON object holding every registry key, grouped by namespace, with
+ * keys that are not set written as null so restoring clears them too. Restoring is done in two steps: {@link #read} diffs a backup against the current state
+ * and {@link #apply} writes only what differs, with one bulk write per namespace, one
+ * property poke, one overlay transaction and a single SystemUI restart. Unknown keys are
+ * ignored, so a backup can never write anything the Evolver screens do not own. Both
+ * steps do IPC and I/O, so run them off the main thread.
+ */
+public class SettingsBackup {
+
+    private static final String TAG = "SettingsBackup";
+
+    public static final int VERSION = 1;
+    public static final String MIME_TYPE = "application/json";
+    public static final String FILE_NAME = "evolver_settings.json";
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_SETTINGS = "settings";
+    private static final String KEY_PROPERTIES = "properties";
+    private static final String KEY_OVERLAYS = "overlays";
+
+    /**
+     * The changes a backup makes to the current state.
+     */
+    public static class Plan {
+        final SparseArray<Map<String, String>> settings = new SparseArray<>();
+        final Map<String, String> properties = new LinkedHashMap<>();
+        final Map<String, Boolean> overlays = new LinkedHashMap<>();
+
+        public int getChangeCount() {
+            int count = properties.size() + overlays.size();
+            for (int i = 0; i < settings.size(); i++) {
+                count += settings.valueAt(i).size();
+            }
+            return count;
+        }
+
+        Map<String, String> getSettings(int namespace) {
+            Map<String, String> values = settings.get(namespace);
+            if (values == null) {
+                values = new LinkedHashMap<>();
+                settings.put(namespace, values);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Writes the current state to the given stream, which is left open.
+     */
+    public static void export(Context context, OutputStream out) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        OverlayManager overlayManager = context.getSystemService(OverlayManager.class);
+        Entries entries = new Entries(context);
+
+        JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        writer.beginObject();
+        writer.name(KEY_VERSION).value(VERSION);
+
+        writer.name(KEY_SETTINGS).beginObject();
+        for (int i = 0; i < entries.settings.size(); i++) {
+            int namespace = entries.settings.keyAt(i);
+            Set<String> keys = entries.settings.valueAt(i);
+            SettingsCache cache = SettingsCache.get(resolver, namespace);
+            cache.prefetch(resolver, keys);
+            writer.name(SettingsCache.getNamespaceName(namespace)).beginObject();
+            for (String key : keys) {
+                writer.name(key).value(cache.getString(resolver, key));
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+
+        writer.name(KEY_PROPERTIES).beginObject();
+        for (String key : entries.properties) {
+            String value = getProperty(key);
+            writer.name(key).value(!value.isEmpty() ? value : null);
+        }
+        writer.endObject();
+
+        writer.name(KEY_OVERLAYS).beginObject();
+        for (String key : entries.overlays) {
+            // Null when the overlay is not installed, restoring cannot change that.
+            Boolean enabled = isOverlayEnabled(overlayManager, key);
+            if (enabled != null) {
+                writer.name(key).value(enabled);
+            } else {
+                writer.name(key).nullValue();
+            }
+        }
+        writer.endObject();
+
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Reads a backup and returns what applying it would change.
+     *
+     * @throws IOException if the backup is malformed or from a newer version
+     */
+    public static Plan read(Context context, InputStream in) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        OverlayManager overlayManager = context.getSystemService(OverlayManager.class);
+        Entries entries = new Entries(context);
+        Plan backup = new Plan();
+
+        JsonReader reader = new JsonReader(new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8)));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (KEY_VERSION.equals(name)) {
+                    int version = reader.nextInt();
+                    if (version > VERSION) {
+                        throw new IOException("Unsupported backup version " + version);
+                    }
+                } else if (KEY_SETTINGS.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        int namespace = SettingsCache.getNamespace(reader.nextName());
+                        Set<String> keys = entries.settings.get(namespace);
+                        if (keys == null) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        readStrings(reader, keys, backup.getSettings(namespace));
+                    }
+                    reader.endObject();
+                } else if (KEY_PROPERTIES.equals(name)) {
+                    readStrings(reader, entries.properties, backup.properties);
+                } else if (KEY_OVERLAYS.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String key = reader.nextName();
+                        if (entries.overlays.contains(key)
+                                && reader.peek() == JsonToken.BOOLEAN) {
+                            backup.overlays.put(key, reader.nextBoolean());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed backup", e);
+        }
+
+        // Keep only what differs from the current state. Keys the backup has as null were
+        // not set, they are removed, or emptied for properties, which cannot be removed.
+        Plan plan = new Plan();
+        for (int i = 0; i < backup.settings.size(); i++) {
+            int namespace = backup.settings.keyAt(i);
+            Map<String, String> values = backup.settings.valueAt(i);
+            SettingsCache cache = SettingsCache.get(resolver, namespace);
+            cache.prefetch(resolver, values.keySet());
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                if (!Objects.equals(entry.getValue(),
+                        cache.getString(resolver, entry.getKey()))) {
+                    plan.getSettings(namespace).put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        for (Map.Entry<String, String> entry : backup.properties.entrySet()) {
+            String value = entry.getValue() != null ? entry.getValue() : "";
+            if (!value.equals(getProperty(entry.getKey()))) {
+                plan.properties.put(entry.getKey(), value);
+            }
+        }
+        for (Map.Entry<String, Boolean> entry : backup.overlays.entrySet()) {
+            Boolean enabled = isOverlayEnabled(overlayManager, entry.getKey());
+            if (enabled != null && !enabled.equals(entry.getValue())) {
+                plan.overlays.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Applies a plan from {@link #read} and restarts SystemUI once if anything changed.
+     * Returns false if part of it could not be applied, SystemUI is then left running.
+     */
+    public static boolean apply(Context context, Plan plan) {
+        return apply(context, plan, true);
+    }
+
+    /**
+     * Applies a plan, restarting SystemUI afterwards if asked to and everything changed
+     * was applied.
+     */
+    public static boolean apply(Context context, Plan plan, boolean restartSystemUI) {
+        if (plan.getChangeCount() == 0) {
+            return true;
+        }
+        ContentResolver resolver = context.getContentResolver();
+        boolean success = true;
+
+        for (int i = 0; i < plan.settings.size(); i++) {
+            Map<String, String> values = plan.settings.valueAt(i);
+            int written = SettingsCache.get(resolver, plan.settings.keyAt(i))
+                    .putAll(resolver, values);
+            if (written != values.size()) {
+                Log.w(TAG, "Wrote " + written + " of " + values.size() + " "
+                        + SettingsCache.getNamespaceName(plan.settings.keyAt(i)) + " settings");
+                success = false;
+            }
+        }
+
+        SystemPropertyBatcher.beginBatch();
+        try {
+            for (Map.Entry<String, String> entry : plan.properties.entrySet()) {
+                try {
+                    SystemPropertyBatcher.set(entry.getKey(), entry.getValue());
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Error setting " + entry.getKey(), e);
+                    success = false;
+                }
+            }
+        } finally {
+            SystemPropertyBatcher.endBatch();
+        }
+
+        if (!plan.overlays.isEmpty()) {
+            OverlayManager overlayManager = context.getSystemService(OverlayManager.class);
+            try {
+                OverlayManagerTransaction.Builder transaction =
+                        new OverlayManagerTransaction.Builder();
+                for (Map.Entry<String, Boolean> entry : plan.overlays.entrySet()) {
+                    transaction.setEnabled(OverlaySwitchPreference.getOverlayID(
+                            overlayManager, entry.getKey()), entry.getValue(), USER_CURRENT);
+                }
+                overlayManager.commit(transaction.build());
+            } catch (SecurityException | IllegalStateException e) {
+                Log.e(TAG, "Failed setting overlays", e);
+                success = false;
+            }
+        }
+
+        if (restartSystemUI && success) {
+            SystemRestartUtils.restartSystemUI(context);
+        } else if (restartSystemUI) {
+            // Restarting into a half restored state would hide the failure, leave it to
+            // the user to retry or restart.
+            Log.w(TAG, "Restore incomplete, not restarting SystemUI");
+        }
+        return success;
+    }
+
+    private static void readStrings(JsonReader reader, Set<String> keys,
+            Map<String, String> values) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (keys.contains(key) && reader.peek() == JsonToken.STRING) {
+                values.put(key, reader.nextString());
+            } else if (keys.contains(key) && reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                values.put(key, null);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    static String getProperty(String key) {
+        long start = SettingsStats.start();
+        String value = SystemProperties.get(key, "");
+        SettingsStats.recordRead(SettingsStats.SYSTEM_PROPERTIES, key, start);
+        return value;
+    }
+
+    /**
+     * Returns whether the overlay is enabled, or null if it is not installed.
+     */
+    static Boolean isOverlayEnabled(OverlayManager overlayManager, String key) {
+        if (overlayManager == null) {
+            return null;
+        }
+        try {
+            OverlayInfo info = overlayManager.getOverlayInfo(
+                    OverlaySwitchPreference.getOverlayID(overlayManager, key), CURRENT);
+            return info != null ? info.isEnabled() : null;
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The registry keys, grouped by where they are stored.
+     */
+    private static class Entries {
+        final SparseArray<Set<String>> settings = new SparseArray<>();
+        final Set<String> properties = new LinkedHashSet<>();
+        final Set<String> overlays = new LinkedHashSet<>();
+
+        Entries(Context context) {
+            for (SettingsRegistry.Entry entry : SettingsRegistry.getAll(context)) {
+                switch (entry.type) {
+                    case SettingsRegistry.TYPE_SETTING:
+                        Set<String> keys = settings.get(entry.namespace);
+                        if (keys == null) {
+                            keys = new LinkedHashSet<>();
+                            settings.put(entry.namespace, keys);
+                        }
+                        keys.add(entry.key);
+                        break;
+                    case SettingsRegistry.TYPE_SYSTEM_PROPERTY:
+                        properties.add(entry.key);
+                        break;
+                    case SettingsRegistry.TYPE_OVERLAY:
+                        overlays.add(entry.key);
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * SPDX-FileCopyrightText: 2024 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.settings.utils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.om.OverlayManager;
+import android.util.SparseArray;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.evolution.settings.preferences.SettingsCache;
+import org.evolution.settings.preferences.SettingsRegistry;
+
+/**
+ * Resets screens to the defaults their XML declares.
+ *
+ * The reset is computed as a diff against the current state and applied like a restored
+ * backup, with one bulk write per settings namespace, so observers such as SystemUI see
+ * one burst of changes instead of one per key. Keys without a declared default and keys
+ * that were never set are left alone, the latter already read as their default. Does IPC,
+ * so call it off the main thread.
+ */
+public class SettingsDefaults {
+
+    /**
+     * Returns what resetting the given screens, or every screen if none are given, would
+     * change.
+     */
+    public static SettingsBackup.Plan plan(Context context, int... screens) {
+        ContentResolver resolver = context.getContentResolver();
+        OverlayManager overlayManager = context.getSystemService(OverlayManager.class);
+        SettingsBackup.Plan plan = new SettingsBackup.Plan();
+        SparseArray<Map<String, String>> settings = new SparseArray<>();
+
+        for (SettingsRegistry.Entry entry : SettingsRegistry.getAll(context,
+                screens.length > 0 ? screens : SettingsRegistry.SCREENS)) {
+            if (entry.defaultValue == null) {
+                continue;
+            }
+            switch (entry.type) {
+                case SettingsRegistry.TYPE_SETTING:
+                    Map<String, String> defaults = settings.get(entry.namespace);
+                    if (defaults == null) {
+                        defaults = new LinkedHashMap<>();
+                        settings.put(entry.namespace, defaults);
+                    }
+                    defaults.put(entry.key, entry.defaultValue);
+                    break;
+                case SettingsRegistry.TYPE_SYSTEM_PROPERTY:
+                    String value = SettingsBackup.getProperty(entry.key);
+                    if (!value.isEmpty() && !value.equals(entry.defaultValue)) {
+                        plan.properties.put(entry.key, entry.defaultValue);
+                    }
+                    break;
+                case SettingsRegistry.TYPE_OVERLAY:
+                    Boolean enabled = SettingsBackup.isOverlayEnabled(overlayManager,
+                            entry.key);
+                    boolean enabledByDefault = Boolean.parseBoolean(entry.defaultValue);
+                    if (enabled != null && enabled != enabledByDefault) {
+                        plan.overlays.put(entry.key, enabledByDefault);
+                    }
+                    break;
+            }
+        }
+
+        for (int i = 0; i < settings.size(); i++) {
+            int namespace = settings.keyAt(i);
+            Map<String, String> defaults = settings.valueAt(i);
+            SettingsCache cache = SettingsCache.get(resolver, namespace);
+            cache.prefetch(resolver, defaults.keySet());
+            for (Map.Entry<String, String> entry : defaults.entrySet()) {
+                String value = cache.getString(resolver, entry.getKey());
+                if (value != null && !value.equals(entry.getValue())) {
+                    plan.getSettings(namespace).put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Resets the given screens, or every screen if none are given. Returns how many values
+     * were changed.
+     */
+    public static int reset(Context context, int... screens) {
+        SettingsBackup.Plan plan = plan(context, screens);
+        SettingsBackup.apply(context, plan, false);
+        return plan.getChangeCount();
+    }
+}